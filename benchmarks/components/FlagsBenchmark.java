@@ -0,0 +1,56 @@
+package components;
+
+import Exceptions.EmulatorException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second with flags computed by every arithmetic instruction against flags computed on demand.
+ * Runs the synthetic mixes, or a real rom through the boot rom with -p rom=game.gb, which restarts from
+ * power on whenever it faults. Nothing is rendered.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FlagsBenchmark {
+    @Param({"SWITCH", "TABLE", "TIERED"})
+    CPU.Dispatch dispatch;
+
+    @Param({"false", "true"})
+    boolean lazyFlags;
+
+    @Param({"ALU", "BRANCH", "CB"})
+    String mix;
+
+    @Param({""})
+    String rom; //replaces mix when set
+
+    private CPU cpu;
+    private SaveState start;
+
+    @Setup
+    public void setup() throws IOException {
+        Memory memory = rom.isEmpty()
+                ? SyntheticRom.memory(SyntheticRom.Mix.valueOf(mix))
+                : new Memory(new Cartridge(rom), true);
+        memory.video.setRenderInterval(0);
+        cpu = new CPU(memory, dispatch, lazyFlags);
+        start = new SaveState(cpu);
+        start.capture();
+    }
+
+    @Benchmark
+    public long frame() {
+        try {
+            cpu.runUntil(cpu.getTime() + Video.FRAME_CYCLES);
+        } catch (EmulatorException e) {
+            start.restore();
+        }
+        return cpu.getTime();
+    }
+}
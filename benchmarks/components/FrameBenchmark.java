@@ -0,0 +1,40 @@
+package components;
+
+import Exceptions.EmulatorException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second of a whole machine, display on, running the synthetic rom unthrottled.
+ * A render interval of 0 is turbo mode without any rendering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FrameBenchmark {
+    @Param({"SWITCH", "TABLE", "TIERED"})
+    CPU.Dispatch dispatch;
+
+    @Param({"1", "0"})
+    int renderInterval;
+
+    private CPU cpu;
+
+    @Setup
+    public void setup() throws IOException {
+        Memory memory = SyntheticRom.memory(SyntheticRom.Mix.ALU);
+        memory.video.setRenderInterval(renderInterval);
+        cpu = new CPU(memory, dispatch);
+    }
+
+    @Benchmark
+    public long frame() throws EmulatorException {
+        cpu.runUntil(cpu.getTime() + Video.FRAME_CYCLES);
+        return cpu.getTime();
+    }
+}
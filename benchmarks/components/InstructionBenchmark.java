@@ -0,0 +1,42 @@
+package components;
+
+import Exceptions.EmulatorException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instructions per second for each instruction mix and dispatch strategy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class InstructionBenchmark {
+    private static final int INSTRUCTIONS = 1000;
+
+    @Param({"ALU", "LOAD", "BRANCH", "CB"})
+    String mix;
+
+    @Param({"SWITCH", "TABLE"})
+    CPU.Dispatch dispatch;
+
+    private CPU cpu;
+
+    @Setup
+    public void setup() throws IOException {
+        cpu = SyntheticRom.load(SyntheticRom.Mix.valueOf(mix), dispatch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public long instructions() throws EmulatorException {
+        for (int i = 0; i < INSTRUCTIONS; i++)
+            cpu.step();
+
+        return cpu.getTime();
+    }
+}
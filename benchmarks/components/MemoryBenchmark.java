@@ -0,0 +1,63 @@
+package components;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes per second through the page table, for each memory region.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MemoryBenchmark {
+    private static final int ACCESSES = 256;
+
+    public enum Region {
+        ROM(0x4000, 0x3F),
+        VRAM(0x8000, 0x3F), //writes decode tiles again
+        WRAM(0xC000, 0x3F),
+        OAM(0xFE00, 0x3F),
+        IO(0xFF42, 0x01), //scroll registers, the others have side effects
+        HRAM(0xFF80, 0x3F);
+
+        private final int start;
+        private final int mask;
+
+        Region(int start, int mask) {
+            this.start = start;
+            this.mask = mask;
+        }
+    }
+
+    @Param
+    Region region;
+
+    private Memory memory;
+
+    @Setup
+    public void setup() throws IOException {
+        memory = SyntheticRom.memory(SyntheticRom.Mix.ALU);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int read() {
+        int sum = 0;
+        for (int i = 0; i < ACCESSES; i++)
+            sum += memory.read((char) (region.start + (i & region.mask)));
+
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public void write() {
+        for (int i = 0; i < ACCESSES; i++)
+            memory.write((char) (region.start + (i & region.mask)), (char) (i & 0xFF));
+    }
+}
@@ -0,0 +1,75 @@
+package components;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Smallest cartridge the emulator will load, looping forever over one instruction mix.
+ * The boot rom is skipped, the program sets up the stack, points HL at work ram and turns the
+ * display on with background and sprites before entering its loop.
+ */
+final class SyntheticRom {
+    private static final int ENTRY = 0x0150;
+
+    private static final int[] PREAMBLE = {
+            0x31, 0xFE, 0xFF, //LD SP, 0xFFFE
+            0x21, 0x00, 0xC0, //LD HL, 0xC000
+            0x3E, 0x93,       //LD A, 0x93
+            0xE0, 0x40,       //LDH (0x40), A
+    };
+
+    enum Mix {
+        ALU(0x80, 0x89, 0x92, 0xAB, 0xA4, 0xB5, 0xB8, 0x3C, 0x05, 0x0C, 0x9A, 0x2F, 0x27, 0x07, 0x1F, 0x03),
+        LOAD(0x7E, 0x77, 0x47, 0x4E, 0x71, 0x2C,
+                0xFA, 0x00, 0xC1, 0xEA, 0x01, 0xC1,
+                0xF0, 0x80, 0xE0, 0x81,
+                0x78, 0x36, 0x5A, 0x11, 0x00, 0xC2, 0x12),
+        BRANCH(0x06, 0x08, 0x05, 0x20, 0xFD, 0xCD, 0x08, 0x00, 0xCF),
+        CB(0xCB, 0x00, 0xCB, 0x31, 0xCB, 0x5A, 0xCB, 0xCB, 0xCB, 0x8B, 0xCB, 0x3D,
+                0xCB, 0x16, 0xCB, 0x46, 0xCB, 0x1F, 0xCB, 0x27, 0xCB, 0x2F);
+
+        private final int[] loop;
+
+        Mix(int... loop) {
+            this.loop = loop;
+        }
+    }
+
+    private SyntheticRom() {
+    }
+
+    static Path write(Mix mix) throws IOException {
+        byte[] rom = new byte[2 * Cartridge.BANK_SIZE];
+        put(rom, 0x0000, 0xC3, ENTRY & 0xFF, ENTRY >> 8); //JP ENTRY
+        put(rom, 0x0008, 0xC9); //RET, target of the calls in BRANCH
+        put(rom, 0x0100, 0xC3, ENTRY & 0xFF, ENTRY >> 8);
+
+        int loop = put(rom, ENTRY, PREAMBLE);
+        int end = put(rom, loop, mix.loop);
+        put(rom, end, 0xC3, loop & 0xFF, loop >> 8); //JP loop
+
+        Path file = Files.createTempFile("synthetic", ".gb");
+        file.toFile().deleteOnExit();
+        Files.write(file, rom);
+        return file;
+    }
+
+    // headless machine running mix, already past the boot rom
+    static CPU load(Mix mix, CPU.Dispatch dispatch) throws IOException {
+        return new CPU(memory(mix), dispatch);
+    }
+
+    static Memory memory(Mix mix) throws IOException {
+        Memory memory = new Memory(new Cartridge(write(mix).toString()), true);
+        memory.write((char) 0xFF50, (char) 1);
+        return memory;
+    }
+
+    private static int put(byte[] rom, int address, int... bytes) {
+        for (int b : bytes)
+            rom[address++] = (byte) b;
+
+        return address;
+    }
+}
@@ -0,0 +1,12 @@
+package Exceptions;
+
+public abstract class EmulatorException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public EmulatorException() {
+    }
+
+    public EmulatorException(String format) {
+        super(format);
+    }
+}
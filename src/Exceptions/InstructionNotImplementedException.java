@@ -1,6 +1,8 @@
 package Exceptions;
 
-public class InstructionNotImplementedException extends Exception {
+public class InstructionNotImplementedException extends EmulatorException {
+    private static final long serialVersionUID = 1L;
+
     public InstructionNotImplementedException(String format) {
         super(format);
     }
@@ -1,6 +1,8 @@
 package Exceptions;
 
-public class InvalidInstructionException extends Exception {
+public class InvalidInstructionException extends EmulatorException {
+    private static final long serialVersionUID = 1L;
+
     public InvalidInstructionException(String format) {
         super(format);
     }
@@ -1,4 +1,12 @@
 package Exceptions;
 
-public class InvalidMemoryReadLocationException extends Exception {
+public class InvalidMemoryReadLocationException extends EmulatorException {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidMemoryReadLocationException() {
+    }
+
+    public InvalidMemoryReadLocationException(String s) {
+        super(s);
+    }
 }
@@ -1,6 +1,8 @@
 package Exceptions;
 
-public class InvalidMemoryWriteLocationException extends Exception {
+public class InvalidMemoryWriteLocationException extends EmulatorException {
+    private static final long serialVersionUID = 1L;
+
     public InvalidMemoryWriteLocationException(String s) {
         super(s);
     }
@@ -1,19 +1,141 @@
+import components.BatchRunner;
 import components.CPU;
 import components.Cartridge;
 import components.Memory;
+import components.Metrics;
+import components.Tracer;
+import components.Pacer;
+import components.Rewind;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
 
 public class Main {
+    private static final int TRACE_RECORDS = 1 << 20; //24MB ring
+    private static final int REWIND_BYTES = 32 << 20; //minutes of history at one snapshot per frame
+    private static final int REWIND_KEYFRAMES = 60; //snapshots between keyframes
+
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.out.println("Usage: java Gameboy.class <filename>");
+            System.out.println("Usage: java Gameboy.class <filename> [--table|--tiered] [--headless] [--turbo[=N]] [--metrics[=histograms]] [--trace=<file>] [--lazy-flags] [--rewind]");
+            System.out.println("       java Gameboy.class --batch <jobs file> [--table|--tiered] [--threads=N]");
+            System.out.println("       java Gameboy.class --decode <trace file>");
+            return;
+        }
+
+        if (args[0].equals("--batch")) {
+            batch(args);
             return;
         }
+
+        if (args[0].equals("--decode")) {
+            try {
+                Tracer.decode(Paths.get(args[1]), System.out);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        CPU.Dispatch dispatch = CPU.Dispatch.SWITCH;
+        boolean headless = false;
+        boolean turbo = false;
+        boolean metrics = false;
+        boolean histograms = false;
+        boolean lazyFlags = false;
+        boolean rewind = false;
+        String trace = null;
+        int renderInterval = -1;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--table"))
+                dispatch = CPU.Dispatch.TABLE;
+            else if (args[i].equals("--tiered"))
+                dispatch = CPU.Dispatch.TIERED;
+            else if (args[i].equals("--headless"))
+                headless = true;
+            else if (args[i].equals("--turbo"))
+                turbo = true;
+            else if (args[i].startsWith("--turbo=")) {
+                turbo = true;
+                renderInterval = Integer.parseInt(args[i].substring("--turbo=".length()));
+            } else if (args[i].equals("--metrics"))
+                metrics = true;
+            else if (args[i].equals("--metrics=histograms")) {
+                metrics = true;
+                histograms = true;
+            } else if (args[i].startsWith("--trace="))
+                trace = args[i].substring("--trace=".length());
+            else if (args[i].equals("--lazy-flags"))
+                lazyFlags = true;
+            else if (args[i].equals("--rewind"))
+                rewind = true; //hold backspace in the window to step back
+        }
+
+        //without a count turbo renders nothing headless and every frame in a window
+        if (renderInterval < 0)
+            renderInterval = headless ? 0 : 1;
+
+        CPU cpu = null;
+        try {
+            Cartridge c = new Cartridge(args[0], true);
+            Memory m = new Memory(c, headless);
+            Runtime.getRuntime().addShutdownHook(new Thread(m::flush)); //closing the window exits
+            cpu = new CPU(m, dispatch, lazyFlags);
+            if (metrics)
+                new Metrics(cpu, histograms).register(args[0]);
+            if (trace != null) {
+                Tracer tracer = new Tracer(cpu, Paths.get(trace), TRACE_RECORDS);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        tracer.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }));
+            }
+            Pacer pacer = new Pacer(cpu, m);
+            if (rewind)
+                pacer.setRewind(new Rewind(cpu, 1, REWIND_KEYFRAMES, REWIND_BYTES));
+
+            if (turbo)
+                pacer.runTurbo(renderInterval);
+            else
+                pacer.runRealTime();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        if (cpu != null)
+            System.out.println(String.format("%d idle loops skipped, %d cycles", cpu.getIdleLoopHits(),
+                    cpu.getIdleCyclesSkipped()));
+    }
+
+    // each line of the jobs file is "<rom> <frames> [input script]"
+    private static void batch(String[] args) {
+        CPU.Dispatch dispatch = CPU.Dispatch.SWITCH;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--table"))
+                dispatch = CPU.Dispatch.TABLE;
+            else if (args[i].equals("--tiered"))
+                dispatch = CPU.Dispatch.TIERED;
+            else if (args[i].startsWith("--threads="))
+                threads = Integer.parseInt(args[i].substring("--threads=".length()));
+        }
+
         try {
-            Cartridge c = new Cartridge(args[0]);
-            Memory m = new Memory(c);
-            CPU cpu = new CPU(m);
+            long start = System.nanoTime();
+            List<BatchRunner.Result> results = new BatchRunner(threads, dispatch).run(BatchRunner.readJobs(args[1]));
 
-            cpu.run();
+            long frames = 0;
+            for (BatchRunner.Result result : results) {
+                System.out.println(result);
+                frames += result.frames;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%d jobs, %d frames in %.2f s on %d threads, %.0f frames/s",
+                    results.size(), frames, seconds, threads, frames / seconds));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -0,0 +1,81 @@
+package components;
+
+import static components.Registers.*;
+
+/**
+ * Results of the 8 bit arithmetic instructions together with their flags, so {@link Registers} looks them
+ * up instead of computing them. Entries hold F in the high byte and the result in the low byte.
+ * ADD and SUB are indexed by carry << 16 | a << 8 | operand, INC and DEC by the operand and leave the
+ * carry flag to the caller, DAA by the N, H and C flags << 8 | a.
+ * The tables are filled from the plain helpers below.
+ */
+final class AluTables {
+    static final char[] ADD = new char[2 << 16];
+    static final char[] SUB = new char[2 << 16];
+    static final char[] INC = new char[256];
+    static final char[] DEC = new char[256];
+    static final char[] DAA = new char[8 << 8];
+
+    static {
+        for (int carry = 0; carry < 2; carry++) {
+            for (int a = 0; a < 256; a++) {
+                for (int value = 0; value < 256; value++) {
+                    ADD[carry << 16 | a << 8 | value] = (char) add(a, value, carry);
+                    SUB[carry << 16 | a << 8 | value] = (char) subtract(a, value, carry);
+                }
+            }
+        }
+
+        for (int value = 0; value < 256; value++) {
+            INC[value] = (char) increment(value);
+            DEC[value] = (char) decrement(value);
+        }
+
+        for (int flags = 0; flags < 8; flags++) {
+            for (int a = 0; a < 256; a++)
+                DAA[flags << 8 | a] = (char) decimalAdjust(a, flags << 4);
+        }
+    }
+
+    private AluTables() {
+    }
+
+    private static int add(int a, int value, int carry) {
+        int r = a + value + carry;
+        int f = zero(r & 0xFF) | ((a & 0x0F) + (value & 0x0F) + carry > 0x0F ? HALF_CARRY : 0) | (r > 0xFF ? CARRY : 0);
+        return f << 8 | (r & 0xFF);
+    }
+
+    private static int subtract(int a, int value, int carry) {
+        int r = a - value - carry;
+        int f = zero(r & 0xFF) | SUBTRACT | ((a & 0x0F) - (value & 0x0F) - carry < 0 ? HALF_CARRY : 0) | (r < 0 ? CARRY : 0);
+        return f << 8 | (r & 0xFF);
+    }
+
+    private static int increment(int value) {
+        int r = (value + 1) & 0xFF;
+        return (zero(r) | ((r & 0x0F) == 0 ? HALF_CARRY : 0)) << 8 | r;
+    }
+
+    private static int decrement(int value) {
+        int r = (value - 1) & 0xFF;
+        return (zero(r) | SUBTRACT | ((r & 0x0F) == 0x0F ? HALF_CARRY : 0)) << 8 | r;
+    }
+
+    private static int decimalAdjust(int a, int f) {
+        boolean subtract = (f & SUBTRACT) != 0;
+        int correction = 0;
+        int carry = f & CARRY;
+
+        if ((f & HALF_CARRY) != 0 || (!subtract && (a & 0x0F) > 0x09))
+            correction |= 0x06;
+
+        if (carry != 0 || (!subtract && a > 0x99)) {
+            correction |= 0x60;
+            carry = CARRY;
+        }
+
+        a = (subtract ? a - correction : a + correction) & 0xFF;
+        return (zero(a) | (f & SUBTRACT) | carry) << 8 | a;
+    }
+}
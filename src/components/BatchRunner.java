@@ -0,0 +1,154 @@
+package components;
+
+import Exceptions.EmulatorException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Runs many independent machines across a pool of worker threads, one per core by default.
+ * Each job builds its own headless Cartridge, Memory and CPU, runs unthrottled without rendering for a number
+ * of frames while replaying its input script, and reports a hash of the final save state.
+ * Instances share nothing but immutable tables, so jobs can run in any order on any thread.
+ */
+public class BatchRunner {
+    public static class Job {
+        final String rom;
+        final int frames;
+        final String script; //null for no input
+
+        public Job(String rom, int frames, String script) {
+            this.rom = rom;
+            this.frames = frames;
+            this.script = script;
+        }
+
+        // "<rom> <frames> [input script]", paths relative to base
+        static Job parse(Path base, String line) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 2)
+                throw new IllegalArgumentException("Expected <rom> <frames> [input script]: " + line);
+
+            return new Job(base.resolve(fields[0]).toString(), Integer.parseInt(fields[1]),
+                    fields.length > 2 ? base.resolve(fields[2]).toString() : null);
+        }
+    }
+
+    public static class Result {
+        public final Job job;
+        public final long hash; //CRC32 of the final save state
+        public final int frames;
+        public final long wallNanos;
+        public final String error; //null if the job ran all its frames
+        public final long idleLoopHits;
+        public final long idleCyclesSkipped;
+
+        Result(Job job, long hash, int frames, long wallNanos, String error, long idleLoopHits, long idleCyclesSkipped) {
+            this.job = job;
+            this.hash = hash;
+            this.frames = frames;
+            this.wallNanos = wallNanos;
+            this.error = error;
+            this.idleLoopHits = idleLoopHits;
+            this.idleCyclesSkipped = idleCyclesSkipped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%08x\t%d\t%.1f ms\t%d idle loops, %d cycles skipped\t%s", job.rom, hash,
+                    frames, wallNanos / 1e6, idleLoopHits, idleCyclesSkipped, error == null ? "ok" : error);
+        }
+    }
+
+    private final int threads;
+    private final CPU.Dispatch dispatch;
+
+    public BatchRunner(int threads, CPU.Dispatch dispatch) {
+        this.threads = threads;
+        this.dispatch = dispatch;
+    }
+
+    public BatchRunner(CPU.Dispatch dispatch) {
+        this(Runtime.getRuntime().availableProcessors(), dispatch);
+    }
+
+    // one job per line, blank lines and lines starting with # are skipped
+    public static List<Job> readJobs(String jobsFile) throws IOException {
+        Path path = Paths.get(jobsFile);
+        Path base = path.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>();
+        for (String line : Files.readAllLines(path)) {
+            if (!line.trim().isEmpty() && !line.trim().startsWith("#"))
+                jobs.add(Job.parse(base, line));
+        }
+
+        return jobs;
+    }
+
+    // results in the order of jobs, a job that fails only fills in the error of its own result
+    public List<Result> run(List<Job> jobs) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Job job : jobs)
+                futures.add(pool.submit(() -> run(job)));
+
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new Result(jobs.get(i), 0, 0, 0, e.getCause().toString(), 0, 0));
+                }
+            }
+
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Result run(Job job) {
+        long start = System.nanoTime();
+        int frame = 0;
+        CPU cpu = null;
+        String error = null;
+        try {
+            InputScript script = job.script == null ? InputScript.NONE : InputScript.load(Paths.get(job.script));
+            Memory memory = new Memory(new Cartridge(job.rom), true);
+            memory.video.setRenderInterval(0);
+            cpu = new CPU(memory, dispatch);
+
+            for (; frame < job.frames; frame++) {
+                memory.joypad.setPressed(script.buttonsAt(frame));
+                cpu.runUntil(cpu.getTime() + Video.FRAME_CYCLES);
+            }
+        } catch (IOException | EmulatorException | RuntimeException e) {
+            error = e.toString(); //a bad rom can also surface as any runtime exception
+        }
+
+        if (cpu == null)
+            return new Result(job, 0, frame, System.nanoTime() - start, error, 0, 0);
+
+        return new Result(job, hash(cpu), frame, System.nanoTime() - start, error,
+                cpu.getIdleLoopHits(), cpu.getIdleCyclesSkipped());
+    }
+
+    private static long hash(CPU cpu) {
+        SaveState state = new SaveState(cpu);
+        state.capture();
+        byte[] bytes = new byte[state.capacity()];
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, state.copyTo(bytes));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,38 @@
+package components;
+
+/**
+ * A straight run of guest instructions ending at the first branch, translated into a generated class.
+ * The generated code runs simple register instructions itself and calls the handlers of the table dispatch for
+ * the rest, one call site each, so the JIT sees each of them with a single target and can inline it.
+ */
+final class Block {
+    interface Code {
+        void run(CPU cpu, CPU.Operation[] operations);
+    }
+
+    final int start; //address of the first instruction
+    final int end; //address after the last instruction
+    final CPU.Operation[] operations; //handler of each instruction in order
+    final Code code;
+
+    //only kept for blocks in ram, which can be rewritten
+    char[] source; //bytes from start to end when translated
+    int generation; //of the page of start when source was last checked
+    int endGeneration; //of the page of end - 1
+
+    //owned by BlockCache
+    int key;
+    Block chain; //next block in the same bucket
+    Block newer, older; //recency list
+
+    Block(int start, int end, CPU.Operation[] operations, Code code) {
+        this.start = start;
+        this.end = end;
+        this.operations = operations;
+        this.code = code;
+    }
+
+    int endPage() {
+        return ((end - 1) & 0xFFFF) >> 8;
+    }
+}
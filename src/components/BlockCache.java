@@ -0,0 +1,170 @@
+package components;
+
+/**
+ * Translated blocks keyed by (bank, address), at most CAPACITY of them, least recently used evicted first.
+ * Code in work ram and hram is translated too: its pages are watched so writes bump the page generation,
+ * and a block whose page generation moved on is dropped only if its own bytes changed. Rom blocks are never
+ * checked, writes cannot reach them. A block start is translated once reached HOT times, until then it is interpreted.
+ */
+class BlockCache {
+    private static final int HOT = 32; //times a block start is reached before translating it
+    private static final int CAPACITY = 4096;
+    private static final int BUCKETS = 2 * CAPACITY; //power of two
+    private static final int COUNTERS = 8192; //power of two, heat of colliding starts is shared
+
+    private final Memory memory;
+    private final BlockTranslator translator;
+
+    private final Block[] buckets = new Block[BUCKETS];
+    private final int[] heat = new int[COUNTERS];
+    private Block newest, oldest;
+    private int size;
+
+    BlockCache(Memory memory, BlockTranslator translator) {
+        this.memory = memory;
+        this.translator = translator;
+    }
+
+    // block starting at pc, null if it is still cold or cannot be translated
+    Block lookup(int pc) {
+        int key;
+        int limit; //no opcode is decoded from here on
+        if (pc < 0x4000) {
+            if (pc < 0x100 && memory.bootRomMapped())
+                return null;
+            key = (memory.cart.lowBank << 16) | pc;
+            limit = 0x4000;
+        } else if (pc < 0x8000) {
+            key = (memory.cart.bank << 16) | pc;
+            limit = 0x8000;
+        } else if (pc >= 0xC000 && pc < 0xE000) {
+            key = pc; //work ram has a single bank
+            limit = 0xE000;
+        } else if (pc >= 0xFF80 && pc < 0xFFFF) {
+            key = pc;
+            limit = 0xFFFF;
+        } else {
+            return null;
+        }
+
+        Block block = get(key);
+        if (block != null) {
+            if (block.source == null || unchanged(block))
+                return block;
+
+            remove(block);
+        }
+
+        int counter = hash(key) & (COUNTERS - 1);
+        if (++heat[counter] < HOT)
+            return null;
+
+        heat[counter] = 0;
+        block = translator.translate(memory, pc, limit);
+        if (pc >= 0x8000)
+            watch(block);
+        put(key, block);
+        return block;
+    }
+
+    private void watch(Block block) {
+        block.source = new char[block.end - block.start];
+        for (int i = 0; i < block.source.length; i++)
+            block.source[i] = memory.read((char) (block.start + i));
+
+        memory.watchPage(block.start >> 8);
+        memory.watchPage(block.endPage());
+        block.generation = memory.generations[block.start >> 8];
+        block.endGeneration = memory.generations[block.endPage()];
+    }
+
+    private boolean unchanged(Block block) {
+        int page = block.start >> 8;
+        int endPage = block.endPage();
+        if (memory.generations[page] == block.generation && memory.generations[endPage] == block.endGeneration)
+            return true;
+
+        //something else on the page was written
+        for (int i = 0; i < block.source.length; i++) {
+            if (memory.read((char) (block.start + i)) != block.source[i])
+                return false;
+        }
+
+        block.generation = memory.generations[page];
+        block.endGeneration = memory.generations[endPage];
+        return true;
+    }
+
+    private static int hash(int key) {
+        return (key * 0x9E3779B9) >>> 16;
+    }
+
+    private Block get(int key) {
+        for (Block block = buckets[hash(key) & (BUCKETS - 1)]; block != null; block = block.chain) {
+            if (block.key == key) {
+                if (block != newest) {
+                    unlink(block);
+                    link(block);
+                }
+                return block;
+            }
+        }
+
+        return null;
+    }
+
+    private void put(int key, Block block) {
+        if (size == CAPACITY)
+            remove(oldest);
+
+        int bucket = hash(key) & (BUCKETS - 1);
+        block.key = key;
+        block.chain = buckets[bucket];
+        buckets[bucket] = block;
+        link(block);
+        size++;
+    }
+
+    private void remove(Block block) {
+        int bucket = hash(block.key) & (BUCKETS - 1);
+        if (buckets[bucket] == block) {
+            buckets[bucket] = block.chain;
+        } else {
+            Block previous = buckets[bucket];
+            while (previous.chain != block)
+                previous = previous.chain;
+            previous.chain = block.chain;
+        }
+
+        unlink(block);
+        size--;
+
+        if (block.source != null) {
+            memory.unwatchPage(block.start >> 8);
+            memory.unwatchPage(block.endPage());
+        }
+    }
+
+    // makes block the newest
+    private void link(Block block) {
+        block.older = newest;
+        block.newer = null;
+        if (newest != null)
+            newest.newer = block;
+        newest = block;
+        if (oldest == null)
+            oldest = block;
+    }
+
+    private void unlink(Block block) {
+        if (block.newer != null)
+            block.newer.older = block.older;
+        else
+            newest = block.older;
+
+        if (block.older != null)
+            block.older.newer = block.newer;
+        else
+            oldest = block.newer;
+    }
+}
@@ -0,0 +1,587 @@
+package components;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static components.Registers.*;
+
+/**
+ * Translates blocks of guest code into hidden classes implementing {@link Block.Code}.
+ * NOP, loads between registers and immediates, INC and DEC of registers and the 8 bit arithmetic on registers
+ * and immediates are compiled into the generated method, with their operands as constants and their flags
+ * looked up in {@link AluTables}, or left out where the next instruction overwrites F before anything can read
+ * them. Every other instruction calls the handler of its opcode. The clock and pc are only stored before a
+ * handler, a check or an exit, as nothing else reads them.
+ * Only instructions that touch memory can move the next event or raise a fault, so up to the next of them a
+ * single check of the clock against the next event covers the whole group. Groups that would reach the event
+ * run a copy checking after every instruction, so events are still dispatched after the same instruction as
+ * the interpreter. There are no branches besides those exits, so the class file is written by hand.
+ */
+class BlockTranslator {
+    private static final int MAX_INSTRUCTIONS = 64;
+
+    //bytes taken by each opcode including its operands, CB prefixed opcodes are all 2
+    static final int[] LENGTHS = new int[256];
+
+    //opcodes that may change pc, halt or touch the interrupt master enable, and invalid opcodes
+    static final boolean[] ENDS_BLOCK = new boolean[256];
+
+    //opcodes reading or writing memory besides their operands, CB prefixed ones are those on (HL)
+    //block ending opcodes are left out, nothing in the block runs after them
+    private static final boolean[] ACCESSES_MEMORY = new boolean[256];
+
+    //opcodes setting all of Z, N, H and C without reading any of them
+    private static final boolean[] OVERWRITES_FLAGS = new boolean[256];
+
+    //opcodes compiled into the block instead of calling their handler
+    private static final boolean[] INLINED = new boolean[256];
+
+    static {
+        Arrays.fill(LENGTHS, 1);
+        for (int op : new int[]{0x06, 0x0E, 0x10, 0x16, 0x18, 0x1E, 0x20, 0x26, 0x28, 0x2E, 0x30, 0x36, 0x38, 0x3E,
+                0xC6, 0xCB, 0xCE, 0xD6, 0xDE, 0xE0, 0xE6, 0xE8, 0xEE, 0xF0, 0xF6, 0xF8, 0xFE})
+            LENGTHS[op] = 2;
+        for (int op : new int[]{0x01, 0x08, 0x11, 0x21, 0x31, 0xC2, 0xC3, 0xC4, 0xCA, 0xCC, 0xCD,
+                0xD2, 0xD4, 0xDA, 0xDC, 0xEA, 0xFA})
+            LENGTHS[op] = 3;
+
+        for (int op : new int[]{0x10, 0x18, 0x20, 0x28, 0x30, 0x38, 0x76,
+                0xC0, 0xC2, 0xC3, 0xC4, 0xC7, 0xC8, 0xC9, 0xCA, 0xCC, 0xCD, 0xCF,
+                0xD0, 0xD2, 0xD3, 0xD4, 0xD7, 0xD8, 0xD9, 0xDA, 0xDB, 0xDC, 0xDD, 0xDF,
+                0xE3, 0xE4, 0xE7, 0xE9, 0xEB, 0xEC, 0xED, 0xEF,
+                0xF3, 0xF4, 0xF7, 0xFB, 0xFC, 0xFD, 0xFF})
+            ENDS_BLOCK[op] = true;
+
+        for (int op : new int[]{0x02, 0x08, 0x0A, 0x12, 0x1A, 0x22, 0x2A, 0x32, 0x34, 0x35, 0x36, 0x3A,
+                0xC1, 0xC5, 0xD1, 0xD5, 0xE0, 0xE1, 0xE2, 0xE5, 0xEA, 0xF0, 0xF1, 0xF2, 0xF5, 0xFA})
+            ACCESSES_MEMORY[op] = true;
+        for (int op = 0x40; op < 0xC0; op++)
+            ACCESSES_MEMORY[op] = (op & 7) == 6 || (op < 0x80 && ((op >> 3) & 7) == 6);
+
+        for (int op : new int[]{0x07, 0x0F, 0xC6, 0xD6, 0xE6, 0xE8, 0xEE, 0xF1, 0xF6, 0xF8, 0xFE})
+            OVERWRITES_FLAGS[op] = true;
+        for (int op = 0x80; op < 0xC0; op++)
+            OVERWRITES_FLAGS[op] = op < 0x88 || (op >= 0x90 && op < 0x98) || op >= 0xA0; //not ADC or SBC
+
+        INLINED[0x00] = true;
+        for (int reg : new int[]{B, C, D, E, H, L, A}) {
+            INLINED[0x04 | reg << 3] = true;
+            INLINED[0x05 | reg << 3] = true;
+            INLINED[0x06 | reg << 3] = true;
+        }
+        for (int op = 0x40; op < 0xC0; op++)
+            INLINED[op] = op != 0x76 && !ACCESSES_MEMORY[op];
+        for (int op = 0xC6; op < 0x100; op += 8)
+            INLINED[op] = true;
+    }
+
+    private static final String CPU_CLASS = "components/CPU";
+    private static final String OPERATION_CLASS = "components/CPU$Operation";
+    private static final String REGISTERS_CLASS = "components/Registers";
+    private static final String TABLES_CLASS = "components/AluTables";
+    private static final String CODE_CLASS = "components/Block$Code";
+    private static final String RUN = "(Lcomponents/CPU;[Lcomponents/CPU$Operation;)V";
+
+    private final MethodHandles.Lookup lookup; //full privilege lookup on CPU, the generated classes join its nest
+    private final CPU.Operation[] operations;
+    private final CPU.Operation[] cbOperations;
+
+    BlockTranslator(MethodHandles.Lookup lookup, CPU.Operation[] operations, CPU.Operation[] cbOperations) {
+        this.lookup = lookup;
+        this.operations = operations;
+        this.cbOperations = cbOperations;
+    }
+
+    // block starting at start, decoding no opcode at or past limit, though the first instruction is always taken
+    Block translate(Memory memory, int start, int limit) {
+        Instruction[] instructions = new Instruction[MAX_INSTRUCTIONS];
+        CPU.Operation[] handlers = new CPU.Operation[MAX_INSTRUCTIONS];
+
+        int count = 0;
+        int address = start;
+        boolean end = false;
+        while (!end && count < MAX_INSTRUCTIONS && (count == 0 || address < limit)) {
+            int opcode = memory.read((char) address);
+            Instruction instruction = new Instruction();
+            instruction.next = (address + LENGTHS[opcode]) & 0xFFFF;
+            if (opcode == 0xCB) {
+                int cb = memory.read((char) (address + 1));
+                instruction.pc = address + 2;
+                instruction.cost = CPU.CB_CYCLES[cb];
+                instruction.memoryAccess = (cb & 7) == 6;
+                instruction.overwritesFlags = cb < 0x10 || (cb >= 0x20 && cb < 0x40); //shifts and swap, not RL or RR
+                handlers[count] = cbOperations[cb];
+            } else {
+                instruction.opcode = opcode;
+                instruction.operand = LENGTHS[opcode] > 1 ? memory.read((char) (address + 1)) : 0;
+                instruction.pc = address + 1;
+                instruction.cost = CPU.CYCLES[opcode];
+                instruction.memoryAccess = ACCESSES_MEMORY[opcode];
+                instruction.overwritesFlags = OVERWRITES_FLAGS[opcode];
+                instruction.inlined = INLINED[opcode];
+                handlers[count] = operations[opcode];
+            }
+            instructions[count++] = instruction;
+
+            address += LENGTHS[opcode]; //not wrapped, so end - start is the length even at the top of memory
+            end = ENDS_BLOCK[opcode];
+        }
+
+        byte[] classFile = new Generator().generate(instructions, count);
+        return new Block(start, address, Arrays.copyOf(handlers, count), define(classFile));
+    }
+
+    private static final class Instruction {
+        int opcode; //0xCB for prefixed ones, which are never inlined
+        int operand; //byte after the opcode
+        int pc; //after the opcode, as the handler expects it
+        int next; //after the whole instruction
+        int cost;
+        boolean memoryAccess;
+        boolean overwritesFlags;
+        boolean inlined;
+    }
+
+    // first instruction from i on that accesses memory, or the last one
+    private static int next(Instruction[] instructions, int i, int count) {
+        while (i < count - 1 && !instructions[i].memoryAccess)
+            i++;
+        return i;
+    }
+
+    private Block.Code define(byte[] classFile) {
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(classFile, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+            return (Block.Code) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not define translated block", e);
+        }
+    }
+
+    /**
+     * Writes the class of one block. run(cpu, operations) keeps cpu.regs in local 3, its r in local 4 and
+     * a table entry in local 5.
+     */
+    private static final class Generator {
+        private static final int REGS = 3;
+        private static final int R = 4;
+        private static final int ENTRY = 5;
+
+        private final ConstantPool pool = new ConstantPool();
+        private final Bytes body = new Bytes();
+        private final List<Integer> targets = new ArrayList<>(); //branch targets, in order
+
+        private final int time = pool.member(9, CPU_CLASS, "time", "J");
+        private final int regs = pool.member(9, CPU_CLASS, "regs", "L" + REGISTERS_CLASS + ";");
+        private final int r = pool.member(9, REGISTERS_CLASS, "r", "[I");
+        private final int pc = pool.member(9, REGISTERS_CLASS, "pc", "I");
+        private final int execute = pool.member(11, OPERATION_CLASS, "execute", "()V");
+        private final int interrupted = pool.member(10, CPU_CLASS, "blockInterrupted", "(I)Z");
+        private final int setFlags = pool.member(10, REGISTERS_CLASS, "setFlags", "(I)V");
+        private final int carry = pool.member(10, REGISTERS_CLASS, "carry", "()I");
+        private final int zero = pool.member(10, REGISTERS_CLASS, "zero", "(I)I");
+        private final int addTable = pool.member(9, TABLES_CLASS, "ADD", "[C");
+        private final int subTable = pool.member(9, TABLES_CLASS, "SUB", "[C");
+        private final int incTable = pool.member(9, TABLES_CLASS, "INC", "[C");
+        private final int decTable = pool.member(9, TABLES_CLASS, "DEC", "[C");
+
+        //not yet stored, only handlers, checks and exits need them
+        private int pendingCycles;
+        private int pendingPc = -1;
+
+        // groups of register only instructions up to and including the next memory access run unchecked when the
+        // clock stays short of the next event through the whole group, and one check at a time otherwise
+        byte[] generate(Instruction[] instructions, int count) {
+            body.u1(0x2B).u1(0xB4).u2(regs).u1(0x4E); //regs = cpu.regs
+            body.u1(0x2D).u1(0xB4).u2(r).u1(0x3A).u1(R); //r = regs.r
+
+            for (int i = 0; i < count; ) {
+                int last = next(instructions, i, count);
+                int ahead = 0; //cycles of the instructions before the last, any check among them would pass too
+                for (int j = i; j < last; j++)
+                    ahead += instructions[j].cost;
+
+                if (ahead == 0) {
+                    //a lone instruction, checking ahead is the same as checking before it
+                    if (i > 0)
+                        check();
+                    instruction(instructions[i], i, i < count - 1 && instructions[i + 1].overwritesFlags);
+                } else {
+                    //if (cpu.blockInterrupted(ahead)) goto checked
+                    flush();
+                    body.u1(0x2B).u1(0x11).u2(ahead).u1(0xB6).u2(interrupted);
+                    int toChecked = body.length();
+                    body.u1(0x9A).u2(0);
+
+                    //no exit before last, so nothing reads flags the next instruction overwrites
+                    for (int j = i; j <= last; j++)
+                        instruction(instructions[j], j, j < count - 1 && instructions[j + 1].overwritesFlags);
+                    flush();
+                    int toNext = body.length();
+                    if (last < count - 1)
+                        body.u1(0xA7).u2(0); //goto next
+                    else
+                        body.u1(0xB1);
+
+                    //checked:
+                    body.u2At(toChecked + 1, body.length() - toChecked);
+                    targets.add(body.length());
+                    for (int j = i; j <= last; j++) {
+                        if (j > 0)
+                            check();
+                        instruction(instructions[j], j, false);
+                    }
+                    flush();
+
+                    //next:
+                    if (last < count - 1) {
+                        body.u2At(toNext + 1, body.length() - toNext);
+                        targets.add(body.length());
+                    }
+                }
+                i = last + 1;
+            }
+            flush();
+            body.u1(0xB1);
+
+            return classFile();
+        }
+
+        private void instruction(Instruction instruction, int index, boolean deadFlags) {
+            pendingCycles += instruction.cost;
+            if (!instruction.inlined) {
+                //operations[index].execute()
+                pendingPc = instruction.pc;
+                flush();
+                body.u1(0x2C).u1(0x11).u2(index).u1(0x32).u1(0xB9).u2(execute).u1(1).u1(0);
+                return;
+            }
+
+            pendingPc = instruction.next;
+            int opcode = instruction.opcode;
+            if (opcode == 0x00)
+                return;
+
+            if (opcode < 0x40) {
+                int reg = (opcode >> 3) & 7;
+                if ((opcode & 7) == 6) {
+                    //r[reg] = operand
+                    register(reg);
+                    constant(instruction.operand);
+                    body.u1(0x4F);
+                } else {
+                    incrementOrDecrement(reg, (opcode & 7) == 4, deadFlags);
+                }
+            } else if (opcode < 0x80) {
+                int dest = (opcode >> 3) & 7;
+                int orig = opcode & 7;
+                if (dest != orig) {
+                    //r[dest] = r[orig]
+                    register(dest);
+                    load(orig);
+                    body.u1(0x4F);
+                }
+            } else {
+                arithmetic((opcode >> 3) & 7, instruction, deadFlags);
+            }
+        }
+
+        private void incrementOrDecrement(int reg, boolean increment, boolean deadFlags) {
+            if (deadFlags) {
+                //r[reg] = (r[reg] +- 1) & 0xFF
+                register(reg);
+                load(reg);
+                body.u1(0x04).u1(increment ? 0x60 : 0x64);
+                mask();
+                body.u1(0x4F);
+                return;
+            }
+
+            //entry = INC/DEC[r[reg]], r[reg] = entry & 0xFF, regs.setFlags(entry >> 8 | regs.carry() << 4)
+            body.u1(0xB2).u2(increment ? incTable : decTable);
+            load(reg);
+            body.u1(0x34).u1(0x36).u1(ENTRY);
+            storeResult(reg);
+            body.u1(0x2D).u1(0x15).u1(ENTRY).u1(0x10).u1(8).u1(0x7A);
+            body.u1(0x2D).u1(0xB6).u2(carry).u1(0x07).u1(0x78).u1(0x80);
+            body.u1(0xB6).u2(setFlags);
+        }
+
+        // ADD, ADC, SUB, SBC, AND, XOR, OR or CP of A and a register or the operand
+        private void arithmetic(int kind, Instruction instruction, boolean deadFlags) {
+            if (kind >= 4 && kind < 7) {
+                //r[A] = r[A] &^| value, regs.setFlags(zero(r[A]) | HALF_CARRY for AND)
+                register(A);
+                load(A);
+                value(instruction);
+                body.u1(kind == 4 ? 0x7E : kind == 5 ? 0x82 : 0x80).u1(0x4F);
+                if (!deadFlags) {
+                    body.u1(0x2D);
+                    load(A);
+                    body.u1(0xB8).u2(zero);
+                    if (kind == 4)
+                        body.u1(0x10).u1(HALF_CARRY).u1(0x80);
+                    body.u1(0xB6).u2(setFlags);
+                }
+                return;
+            }
+
+            boolean subtract = kind >= 2;
+            boolean withCarry = kind == 1 || kind == 3;
+            if (deadFlags) {
+                //r[A] = (r[A] +- value +- regs.carry()) & 0xFF, CP leaves nothing
+                if (kind == 7)
+                    return;
+                register(A);
+                load(A);
+                value(instruction);
+                body.u1(subtract ? 0x64 : 0x60);
+                if (withCarry)
+                    body.u1(0x2D).u1(0xB6).u2(carry).u1(subtract ? 0x64 : 0x60);
+                mask();
+                body.u1(0x4F);
+                return;
+            }
+
+            //entry = ADD/SUB[regs.carry() << 16 | r[A] << 8 | value]
+            body.u1(0xB2).u2(subtract ? subTable : addTable);
+            load(A);
+            body.u1(0x10).u1(8).u1(0x78);
+            if (withCarry)
+                body.u1(0x2D).u1(0xB6).u2(carry).u1(0x10).u1(16).u1(0x78).u1(0x80);
+            value(instruction);
+            body.u1(0x80).u1(0x34).u1(0x36).u1(ENTRY);
+
+            //r[A] = entry & 0xFF unless CP, regs.setFlags(entry >> 8)
+            if (kind != 7)
+                storeResult(A);
+            body.u1(0x2D).u1(0x15).u1(ENTRY).u1(0x10).u1(8).u1(0x7A).u1(0xB6).u2(setFlags);
+        }
+
+        // the operand, or the register in the low 3 bits of the opcode
+        private void value(Instruction instruction) {
+            if (instruction.opcode >= 0xC0)
+                constant(instruction.operand);
+            else
+                load(instruction.opcode & 7);
+        }
+
+        // r, reg on the stack for a following iastore
+        private void register(int reg) {
+            body.u1(0x19).u1(R);
+            constant(reg);
+        }
+
+        // r[reg] on the stack
+        private void load(int reg) {
+            register(reg);
+            body.u1(0x2E);
+        }
+
+        // r[reg] = entry & 0xFF
+        private void storeResult(int reg) {
+            register(reg);
+            body.u1(0x15).u1(ENTRY);
+            mask();
+            body.u1(0x4F);
+        }
+
+        private void mask() {
+            body.u1(0x11).u2(0xFF).u1(0x7E);
+        }
+
+        private void constant(int value) {
+            if (value >= -128 && value <= 127)
+                body.u1(0x10).u1(value);
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+                body.u1(0x11).u2(value);
+            else
+                body.u1(0x13).u2(pool.integer(value));
+        }
+
+        // cpu.time += pending cycles, regs.pc = pending pc
+        private void flush() {
+            if (pendingCycles > 0) {
+                body.u1(0x2B).u1(0x59).u1(0xB4).u2(time);
+                constant(pendingCycles);
+                body.u1(0x85).u1(0x61).u1(0xB5).u2(time);
+                pendingCycles = 0;
+            }
+            if (pendingPc >= 0) {
+                body.u1(0x2D);
+                constant(pendingPc);
+                body.u1(0xB5).u2(pc);
+                pendingPc = -1;
+            }
+        }
+
+        // if (cpu.blockInterrupted(0)) return
+        private void check() {
+            flush();
+            body.u1(0x2B).u1(0x03).u1(0xB6).u2(interrupted).u1(0x99).u2(4).u1(0xB1);
+            targets.add(body.length());
+        }
+
+        private byte[] classFile() {
+            int thisClass = pool.classRef("components/TranslatedBlock");
+            int object = pool.classRef("java/lang/Object");
+            int code = pool.classRef(CODE_CLASS);
+            int registers = pool.classRef(REGISTERS_CLASS);
+            int ints = pool.classRef("[I");
+            int objectInit = pool.member(10, "java/lang/Object", "<init>", "()V");
+            int init = pool.utf8("<init>");
+            int initType = pool.utf8("()V");
+            int run = pool.utf8("run");
+            int runType = pool.utf8(RUN);
+            int codeAttribute = pool.utf8("Code");
+            int stackMap = pool.utf8("StackMapTable");
+
+            //every target has the same locals and an empty stack, the first adds regs and r to the arguments
+            Bytes frames = new Bytes();
+            int frameCount = targets.size();
+            int lastFrame = -1;
+            for (int target : targets) {
+                int delta = target - lastFrame - 1;
+                if (lastFrame < 0)
+                    frames.u1(253).u2(delta).u1(7).u2(registers).u1(7).u2(ints);
+                else if (delta < 64)
+                    frames.u1(delta);
+                else
+                    frames.u1(251).u2(delta);
+                lastFrame = target;
+            }
+
+            Bytes file = new Bytes();
+            file.u4(0xCAFEBABE).u2(0).u2(61);
+            file.u2(pool.count()).bytes(pool.bytes);
+            file.u2(0x0030).u2(thisClass).u2(object); //final, super
+            file.u2(1).u2(code);
+            file.u2(0); //fields
+
+            file.u2(2);
+            file.u2(0x0001).u2(init).u2(initType).u2(1);
+            file.u2(codeAttribute).u4(2 + 2 + 4 + 5 + 2 + 2).u2(1).u2(1).u4(5);
+            file.u1(0x2A).u1(0xB7).u2(objectInit).u1(0xB1).u2(0).u2(0);
+
+            int stackMapLength = frameCount == 0 ? 0 : 2 + 4 + 2 + frames.length();
+            file.u2(0x0001).u2(run).u2(runType).u2(1);
+            file.u2(codeAttribute).u4(2 + 2 + 4 + body.length() + 2 + 2 + stackMapLength);
+            file.u2(8).u2(ENTRY + 1).u4(body.length()).bytes(body).u2(0);
+            if (frameCount == 0) {
+                file.u2(0);
+            } else {
+                file.u2(1).u2(stackMap).u4(2 + frames.length()).u2(frameCount).bytes(frames);
+            }
+
+            file.u2(0); //attributes
+            return file.toArray();
+        }
+    }
+
+    private static final class Bytes {
+        private byte[] data = new byte[256];
+        private int length;
+
+        Bytes u1(int value) {
+            if (length == data.length)
+                data = Arrays.copyOf(data, length * 2);
+            data[length++] = (byte) value;
+            return this;
+        }
+
+        Bytes u2(int value) {
+            return u1(value >> 8).u1(value);
+        }
+
+        Bytes u4(int value) {
+            return u2(value >>> 16).u2(value);
+        }
+
+        // overwrites two bytes already written, for branch offsets
+        void u2At(int at, int value) {
+            data[at] = (byte) (value >> 8);
+            data[at + 1] = (byte) value;
+        }
+
+        Bytes bytes(Bytes other) {
+            for (int i = 0; i < other.length; i++)
+                u1(other.data[i]);
+            return this;
+        }
+
+        int length() {
+            return length;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+
+    private static final class ConstantPool {
+        final Bytes bytes = new Bytes();
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int next = 1;
+
+        int count() {
+            return next;
+        }
+
+        int utf8(String value) {
+            Integer index = indexes.get("U" + value);
+            if (index != null)
+                return index;
+
+            //names and descriptors here are plain ASCII, which modified UTF-8 leaves as is
+            bytes.u1(1).u2(value.length());
+            for (int i = 0; i < value.length(); i++)
+                bytes.u1(value.charAt(i));
+            return add("U" + value);
+        }
+
+        int classRef(String name) {
+            int utf8 = utf8(name);
+            Integer index = indexes.get("C" + name);
+            if (index != null)
+                return index;
+
+            bytes.u1(7).u2(utf8);
+            return add("C" + name);
+        }
+
+        int integer(int value) {
+            Integer index = indexes.get("I" + value);
+            if (index != null)
+                return index;
+
+            bytes.u1(3).u4(value);
+            return add("I" + value);
+        }
+
+        // field (9), method (10) or interface method (11) reference
+        int member(int tag, String owner, String name, String descriptor) {
+            String key = tag + owner + "." + name + descriptor;
+            Integer index = indexes.get(key);
+            if (index != null)
+                return index;
+
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            bytes.u1(12).u2(nameIndex).u2(descriptorIndex);
+            int nameAndType = add("N" + key);
+            bytes.u1(tag).u2(ownerIndex).u2(nameAndType);
+            return add(key);
+        }
+
+        private int add(String key) {
+            indexes.put(key, next);
+            return next++;
+        }
+    }
+}
@@ -1,1566 +1,1638 @@
 package components;
 
-import Exceptions.InstructionNotImplementedException;
+import Exceptions.EmulatorException;
 import Exceptions.InvalidInstructionException;
-import Exceptions.InvalidMemoryReadLocationException;
-import Exceptions.InvalidMemoryWriteLocationException;
 
-import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+
+import static components.Registers.*;
 
 
 public class CPU {
 
-    class Register16 {
-        char value;
+    /**
+     * How {@link #run()} decodes opcodes: through the {@link #interpret(int)} switch, through the
+     * handler tables built once in the constructor, or through the tables for cold code and
+     * translated {@link Block}s for code that runs often.
+     */
+    public enum Dispatch {
+        SWITCH, TABLE, TIERED
+    }
+
+    interface Operation {
+        void execute();
+    }
+
+    private interface RegisterOperation {
+        void execute(int reg);
+    }
+
+    private interface AluOperation {
+        void execute(int value);
+    }
+
+    //base cost of each opcode in clock cycles, conditional branches add their extra cost when taken
+    static final int[] CYCLES = {
+             4, 12,  8,  8,  4,  4,  8,  4, 20,  8,  8,  8,  4,  4,  8,  4,
+             4, 12,  8,  8,  4,  4,  8,  4, 12,  8,  8,  8,  4,  4,  8,  4,
+             8, 12,  8,  8,  4,  4,  8,  4,  8,  8,  8,  8,  4,  4,  8,  4,
+             8, 12,  8,  8, 12, 12, 12,  4,  8,  8,  8,  8,  4,  4,  8,  4,
+             4,  4,  4,  4,  4,  4,  8,  4,  4,  4,  4,  4,  4,  4,  8,  4,
+             4,  4,  4,  4,  4,  4,  8,  4,  4,  4,  4,  4,  4,  4,  8,  4,
+             4,  4,  4,  4,  4,  4,  8,  4,  4,  4,  4,  4,  4,  4,  8,  4,
+             8,  8,  8,  8,  8,  8,  4,  8,  4,  4,  4,  4,  4,  4,  8,  4,
+             4,  4,  4,  4,  4,  4,  8,  4,  4,  4,  4,  4,  4,  4,  8,  4,
+             4,  4,  4,  4,  4,  4,  8,  4,  4,  4,  4,  4,  4,  4,  8,  4,
+             4,  4,  4,  4,  4,  4,  8,  4,  4,  4,  4,  4,  4,  4,  8,  4,
+             4,  4,  4,  4,  4,  4,  8,  4,  4,  4,  4,  4,  4,  4,  8,  4,
+             8, 12, 12, 16, 12, 16,  8, 16,  8, 16, 12,  0, 12, 24,  8, 16,
+             8, 12, 12,  0, 12, 16,  8, 16,  8, 16, 12,  0, 12,  0,  8, 16,
+            12, 12,  8,  0,  0, 16,  8, 16, 16,  4, 16,  0,  0,  0,  8, 16,
+            12, 12,  8,  4,  0, 16,  8, 16, 12,  8, 16,  4,  0,  0,  8, 16
+    };
+
+    //longest loop body, in bytes, checked for idle polling when a branch jumps back
+    private static final int IDLE_LOOP_LENGTH = 8;
+
+    //cost of each CB prefixed opcode, including the prefix itself
+    static final int[] CB_CYCLES = {
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 12,  8,  8,  8,  8,  8,  8,  8, 12,  8,
+             8,  8,  8,  8,  8,  8, 12,  8,  8,  8,  8,  8,  8,  8, 12,  8,
+             8,  8,  8,  8,  8,  8, 12,  8,  8,  8,  8,  8,  8,  8, 12,  8,
+             8,  8,  8,  8,  8,  8, 12,  8,  8,  8,  8,  8,  8,  8, 12,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8,
+             8,  8,  8,  8,  8,  8, 16,  8,  8,  8,  8,  8,  8,  8, 16,  8
+    };
+
+    private final Registers regs;
+    private Memory memory;
+    private final Scheduler scheduler;
+    private final Interrupts interrupts;
+    private boolean interruptsEnabled;
+    private boolean halted; //by HALT or STOP, the clock skips from event to event until woken
+    private boolean stopped; //by STOP, only a joypad press wakes it
+    private boolean haltBug; //HALT with IME off and an interrupt pending, the next opcode fetch does not move pc
 
-        Register16(char value) {
-            this.value = value;
-        }
+    private long time; //master clock, in clock cycles
+    private long deadline; //of the current runUntil, so translated blocks stop there like the other engines
+    private long settled; //of the last dispatch or run start, registers polled by idle loops are unchanged since
+    private EmulatorException fault;
 
-        void increment() {
-            value++;
-        }
+    private final Dispatch dispatch;
+    private final Operation[] operations = new Operation[256];
+    private final Operation[] cbOperations = new Operation[256];
+    private final BlockCache blocks; //only used by TIERED
+    private Metrics metrics; //null unless attached, then every engine gives way to runMetered
+    private Tracer tracer; //same, for runTraced, which takes precedence
 
-        void decrement() {
-            value--;
-        }
+    private boolean skipIdleLoops = true;
+    private long idleLoopHits;
+    private long idleCyclesSkipped;
 
-        char getAndIncrement() {
-            char r = value;
-            value++;
-            return r;
-        }
+    public CPU(Memory memory) {
+        this(memory, Dispatch.SWITCH);
     }
 
-    class Register8 {
-        char value;
+    public CPU(Memory memory, Dispatch dispatch){
+        this(memory, dispatch, false);
+    }
 
-        Register8(char value) {
-            this.value = value;
-        }
+    /**
+     * @param lazyFlags compute the flags of arithmetic instructions only when something reads them
+     */
+    public CPU(Memory memory, Dispatch dispatch, boolean lazyFlags){
+        this.memory = memory;
+        this.dispatch = dispatch;
+        regs = lazyFlags ? new LazyRegisters() : new Registers();
+        scheduler = memory.scheduler;
+        interrupts = memory.interrupts;
+        memory.setFaultHandler(this::fault);
+        memory.setClock(() -> time);
+
+        interruptsEnabled = false; //check if interrupts start disabled
 
-        void increment() {
-            value++;
-            value %= 256;
+        time = 0;
+
+        buildOperations();
+        blocks = dispatch == Dispatch.TIERED
+                ? new BlockCache(memory, new BlockTranslator(MethodHandles.lookup(), operations, cbOperations))
+                : null;
+    }
+
+    private void buildOperations() {
+        for (int i = 0x00; i < 0x100; i++) {
+            int instruction = i;
+            operations[i] = () -> fault(new InvalidInstructionException(String.format("%02X", instruction)));
         }
 
-        void decrement() {
-            value--;
+        operations[0x00] = () -> nop();
+        operations[0x01] = () -> loadRegisters16(B, getWordFromMemory());
+        operations[0x02] = () -> loadMemory8(regs.getBC(), A);
+        operations[0x03] = () -> incrementPair(B);
+        operations[0x04] = () -> increment(B);
+        operations[0x05] = () -> decrement(B);
+        operations[0x06] = () -> loadValueToRegister8(B, getByteFromMemory());
+        operations[0x07] = () -> rotateLeftCarryAccumulator();
+        operations[0x08] = () -> storeStackPointer(getAddressFromMemory());
+        operations[0x09] = () -> add16(regs.getBC());
+        operations[0x0A] = () -> loadMemoryToRegister8(A, regs.getBC());
+        operations[0x0B] = () -> decrementPair(B);
+        operations[0x0C] = () -> increment(C);
+        operations[0x0D] = () -> decrement(C);
+        operations[0x0E] = () -> loadValueToRegister8(C, getByteFromMemory());
+        operations[0x0F] = () -> rotateRightCarryAccumulator();
+
+        operations[0x10] = () -> stop();
+        operations[0x11] = () -> loadRegisters16(D, getWordFromMemory());
+        operations[0x12] = () -> loadMemory8(regs.getDE(), A);
+        operations[0x13] = () -> incrementPair(D);
+        operations[0x14] = () -> increment(D);
+        operations[0x15] = () -> decrement(D);
+        operations[0x16] = () -> loadValueToRegister8(D, getByteFromMemory());
+        operations[0x17] = () -> rotateLeftAccumulator();
+        operations[0x18] = () -> jumpRelative((byte) getByteFromMemory());
+        operations[0x19] = () -> add16(regs.getDE());
+        operations[0x1A] = () -> loadMemoryToRegister8(A, regs.getDE());
+        operations[0x1B] = () -> decrementPair(D);
+        operations[0x1C] = () -> increment(E);
+        operations[0x1D] = () -> decrement(E);
+        operations[0x1E] = () -> loadValueToRegister8(E, getByteFromMemory());
+        operations[0x1F] = () -> rotateRightAccumulator();
+
+        operations[0x20] = () -> jumpRelative(!regs.getZero(), (byte) getByteFromMemory());
+        operations[0x21] = () -> loadRegisters16(H, getWordFromMemory());
+        operations[0x22] = () -> storeIncrement();
+        operations[0x23] = () -> incrementPair(H);
+        operations[0x24] = () -> increment(H);
+        operations[0x25] = () -> decrement(H);
+        operations[0x26] = () -> loadValueToRegister8(H, getByteFromMemory());
+        operations[0x27] = () -> decimalAdjustAccumulator();
+        operations[0x28] = () -> jumpRelative(regs.getZero(), (byte) getByteFromMemory());
+        operations[0x29] = () -> add16(regs.getHL());
+        operations[0x2A] = () -> loadIncrement();
+        operations[0x2B] = () -> decrementPair(H);
+        operations[0x2C] = () -> increment(L);
+        operations[0x2D] = () -> decrement(L);
+        operations[0x2E] = () -> loadValueToRegister8(L, getByteFromMemory());
+        operations[0x2F] = () -> complementAccumulator();
+
+        operations[0x30] = () -> jumpRelative(!regs.getCarry(), (byte) getByteFromMemory());
+        operations[0x31] = () -> loadStackPointer(getWordFromMemory());
+        operations[0x32] = () -> storeDecrement();
+        operations[0x33] = () -> incrementStackPointer();
+        operations[0x34] = () -> incrementMemory(regs.getHL());
+        operations[0x35] = () -> decrementMemory(regs.getHL());
+        operations[0x36] = () -> loadValueToMemory8(regs.getHL(), getByteFromMemory());
+        operations[0x37] = () -> setCarryFlag();
+        operations[0x38] = () -> jumpRelative(regs.getCarry(), (byte) getByteFromMemory());
+        operations[0x39] = () -> add16(regs.sp);
+        operations[0x3A] = () -> loadDecrement();
+        operations[0x3B] = () -> decrementStackPointer();
+        operations[0x3C] = () -> increment(A);
+        operations[0x3D] = () -> decrement(A);
+        operations[0x3E] = () -> loadValueToRegister8(A, getByteFromMemory());
+        operations[0x3F] = () -> complementCarryFlag();
+
+        for (int i = 0x40; i < 0x80; i++) {
+            int dest = (i >> 3) & 7;
+            int orig = i & 7;
+            if (dest == 6 && orig == 6)
+                operations[i] = () -> halt();
+            else if (dest == 6)
+                operations[i] = () -> loadMemory8(regs.getHL(), orig);
+            else if (orig == 6)
+                operations[i] = () -> loadMemoryToRegister8(dest, regs.getHL());
+            else
+                operations[i] = () -> loadRegister8(dest, orig);
         }
 
-        boolean rotateLeft(boolean rotateFromEdge) {
-            int r = value / 128;
-            value <<= 1;
-            if (rotateFromEdge)
-                value |= r;
-            else if (f.getCarry())
-                value |= 1;
+        AluOperation[] alu = {this::add8, this::adc8, this::sub8, this::sbc8, this::and8, this::xor8, this::or8, this::cp8};
 
-            value %= 256;
+        for (int i = 0x80; i < 0xC0; i++) {
+            AluOperation op = alu[(i >> 3) & 7];
+            int orig = i & 7;
+            if (orig == 6)
+                operations[i] = () -> op.execute(read(regs.getHL()));
+            else
+                operations[i] = () -> op.execute(regs.r[orig]);
+        }
 
-            return r == 1;
+        operations[0xC0] = () -> ret(!regs.getZero());
+        operations[0xC1] = () -> regs.setBC(pop());
+        operations[0xC2] = () -> jumpAbsolute(!regs.getZero(), getAddressFromMemory());
+        operations[0xC3] = () -> jumpAbsolute(getAddressFromMemory());
+        operations[0xC4] = () -> call(!regs.getZero(), getAddressFromMemory());
+        operations[0xC5] = () -> push(regs.getBC());
+        operations[0xC6] = () -> add8(getByteFromMemory());
+        operations[0xC7] = () -> restart(0x00);
+        operations[0xC8] = () -> ret(regs.getZero());
+        operations[0xC9] = () -> absoluteReturn();
+        operations[0xCA] = () -> jumpAbsolute(regs.getZero(), getAddressFromMemory());
+        operations[0xCB] = () -> executeCB(getByteFromMemory());
+        operations[0xCC] = () -> call(regs.getZero(), getAddressFromMemory());
+        operations[0xCD] = () -> call(getAddressFromMemory());
+        operations[0xCE] = () -> adc8(getByteFromMemory());
+        operations[0xCF] = () -> restart(0x08);
+
+        operations[0xD0] = () -> ret(!regs.getCarry());
+        operations[0xD1] = () -> regs.setDE(pop());
+        operations[0xD2] = () -> jumpAbsolute(!regs.getCarry(), getAddressFromMemory());
+        operations[0xD4] = () -> call(!regs.getCarry(), getAddressFromMemory());
+        operations[0xD5] = () -> push(regs.getDE());
+        operations[0xD6] = () -> sub8(getByteFromMemory());
+        operations[0xD7] = () -> restart(0x10);
+        operations[0xD8] = () -> ret(regs.getCarry());
+        operations[0xD9] = () -> returnInterrupt();
+        operations[0xDA] = () -> jumpAbsolute(regs.getCarry(), getAddressFromMemory());
+        operations[0xDC] = () -> call(regs.getCarry(), getAddressFromMemory());
+        operations[0xDE] = () -> sbc8(getByteFromMemory());
+        operations[0xDF] = () -> restart(0x18);
+
+        operations[0xE0] = () -> storeHigh(getByteFromMemory());
+        operations[0xE1] = () -> regs.setHL(pop());
+        operations[0xE2] = () -> storeHigh(regs.r[C]);
+        operations[0xE5] = () -> push(regs.getHL());
+        operations[0xE6] = () -> and8(getByteFromMemory());
+        operations[0xE7] = () -> restart(0x20);
+        operations[0xE8] = () -> loadStackPointer(offsetStackPointer((byte) getByteFromMemory()));
+        operations[0xE9] = () -> jumpFast(regs.getHL());
+        operations[0xEA] = () -> loadMemory8(getAddressFromMemory(), A);
+        operations[0xEE] = () -> xor8(getByteFromMemory());
+        operations[0xEF] = () -> restart(0x28);
+
+        operations[0xF0] = () -> loadHigh(getByteFromMemory());
+        operations[0xF1] = () -> regs.setAF(pop());
+        operations[0xF2] = () -> loadHigh(regs.r[C]);
+        operations[0xF3] = () -> disableInterrupts();
+        operations[0xF5] = () -> push(regs.getAF());
+        operations[0xF6] = () -> or8(getByteFromMemory());
+        operations[0xF7] = () -> restart(0x30);
+        operations[0xF8] = () -> loadRegisters16(H, offsetStackPointer((byte) getByteFromMemory()));
+        operations[0xF9] = () -> loadStackPointer(regs.getHL());
+        operations[0xFA] = () -> loadMemoryToRegister8(A, getAddressFromMemory());
+        operations[0xFB] = () -> enableInterrupts();
+        operations[0xFE] = () -> cp8(getByteFromMemory());
+        operations[0xFF] = () -> restart(0x38);
+
+        RegisterOperation[] registerShifts = {this::rotateLeftCarry, this::rotateRightCarry, this::rotateLeft, this::rotateRight, this::shiftLeftA, this::shiftRightA, this::swap, this::shiftRightL};
+        Operation[] memoryShifts = {this::rotateLeftCarryMemory, this::rotateRightCarryMemory, this::rotateLeftMemory, this::rotateRightMemory, this::shiftLeftAMemory, this::shiftRightAMemory, this::swapMemory, this::shiftRightLMemory};
+
+        for (int i = 0x00; i < 0x100; i++) {
+            int bit = (i >> 3) & 7;
+            int reg = i & 7;
+            if (i < 0x40) {
+                RegisterOperation op = registerShifts[bit];
+                cbOperations[i] = reg == 6 ? memoryShifts[bit] : () -> op.execute(reg);
+            } else if (i < 0x80) {
+                cbOperations[i] = reg == 6 ? () -> bitMemory(bit) : () -> bit(bit, reg);
+            } else if (i < 0xC0) {
+                cbOperations[i] = reg == 6 ? () -> resetMemory(bit) : () -> reset(bit, reg);
+            } else {
+                cbOperations[i] = reg == 6 ? () -> setMemory(bit) : () -> set(bit, reg);
+            }
         }
+    }
 
-        boolean rotateRight(boolean rotateFromEdge) {
-            int r = value % 2;
-            value <<= 1;
-            if (rotateFromEdge)
-                value |= r << 7;
-            else if (f.getCarry())
-                value |= 1 << 7;
+    /**
+     * Runs until an instruction faults, then throws that fault. Also returns when the CPU halts or stops with
+     * nothing scheduled that could wake it, such as with the display and the timer off, pressing a button and
+     * running again carries on.
+     */
+    public void run() throws EmulatorException {
+        runUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * Runs until the master clock reaches deadline, throwing the first fault instead.
+     * Instructions execute uninterrupted up to the next scheduled event, then the due events are
+     * dispatched and pending interrupts serviced. Faults end the current run of instructions early.
+     */
+    public void runUntil(long deadline) throws EmulatorException {
+        this.deadline = deadline;
+        settled = time;
+        while (fault == null && time < deadline) {
+            //scheduler.next is read every time, instructions can schedule events or request a check
+            if (halted) {
+                if (!skipHalted(deadline))
+                    break;
+            } else if (haltBug) {
+                executeHaltBug();
+            } else if (tracer != null) {
+                runTraced(deadline);
+            } else if (metrics != null) {
+                runMetered(deadline);
+            } else if (dispatch == Dispatch.TIERED) {
+                while (time < scheduler.next && time < deadline) {
+                    Block block = blocks.lookup(regs.pc);
+                    if (block != null)
+                        block.code.run(this, block.operations);
+                    else
+                        interpretBlock();
+                }
+            } else if (dispatch == Dispatch.TABLE) {
+                while (time < scheduler.next && time < deadline) {
+                    execute(getByteFromMemory());
+                }
+            } else {
+                while (time < scheduler.next && time < deadline) {
+                    interpret(getByteFromMemory());
+                }
+            }
 
-            return r == 1;
+            if (time >= scheduler.next) {
+                scheduler.dispatch(time);
+                settled = time;
+                serviceInterrupts();
+            }
         }
 
-        void set(int i) {
-            value |= 1 << i;
-        }
+        if (fault != null)
+            throw fault;
+    }
+
+    /**
+     * Executes a single instruction, then dispatches due events and services interrupts.
+     */
+    public void step() throws EmulatorException {
+        settled = time; //single steps never skip idle loops
+        if (halted)
+            skipHalted(Long.MAX_VALUE);
+        else if (haltBug)
+            executeHaltBug();
+        else if (dispatch == Dispatch.SWITCH)
+            interpret(getByteFromMemory());
+        else
+            execute(getByteFromMemory());
 
-        void reset(int i) {
-            value &= 0xFF - (1 << i);
+        if (time >= scheduler.next) {
+            scheduler.dispatch(time);
+            settled = time;
+            serviceInterrupts();
         }
 
-        boolean shiftRight(boolean reset) {
-            boolean r = value % 2 == 1;
-            int b = value / 128;
-            value >>= 1;
-            if (reset)
-                value &= (0xFF - (1 << 7));
+        if (fault != null)
+            throw fault;
+    }
+
+    // interpreter loop counting instructions, TIERED runs the handler tables like TABLE
+    private void runMetered(long deadline) {
+        long count = 0;
+        if (metrics.histograms) {
+            long[] opcodes = metrics.opcodes;
+            long[] cbOpcodes = metrics.cbOpcodes;
+            while (time < scheduler.next && time < deadline) {
+                int instruction = getByteFromMemory();
+                opcodes[instruction]++;
+                if (instruction == 0xCB)
+                    cbOpcodes[read(regs.pc)]++;
+                if (dispatch == Dispatch.SWITCH)
+                    interpret(instruction);
+                else
+                    execute(instruction);
+                count++;
+            }
+        } else {
+            while (time < scheduler.next && time < deadline) {
+                if (dispatch == Dispatch.SWITCH)
+                    interpret(getByteFromMemory());
+                else
+                    execute(getByteFromMemory());
+                count++;
+            }
+        }
+        metrics.executed(count);
+    }
+
+    // interpreter loop recording every instruction before it runs
+    private void runTraced(long deadline) {
+        Tracer tracer = this.tracer;
+        while (time < scheduler.next && time < deadline) {
+            int pc = regs.pc;
+            int instruction = getByteFromMemory();
+            regs.flags(); //brings F up to date for the record
+            tracer.record(time, pc, regs.sp, instruction, read(regs.pc), regs.r);
+            if (dispatch == Dispatch.SWITCH)
+                interpret(instruction);
             else
-                value |= b << 7;
-            return r;
+                execute(instruction);
         }
+    }
 
-        boolean swap() {
-            int temp = (value & 0x0F) << 4 ;
-            temp += (value & 0xF0) >> 4;
+    void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
 
-            value = (char) temp;
+    void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        memory.video.metrics = metrics;
+    }
 
-            return value == 0;
-        }
+    private void fault(EmulatorException e) {
+        if (fault == null)
+            fault = e;
 
-        boolean shiftLeft() {
-            boolean r = value / 128 == 1;
-            value <<= 1;
-            value &= (0xFF - 1);
-            return r;
-        }
+        scheduler.requestCheck();
     }
 
-    class Flags extends Register8 {
-        Flags() {
-            super((char) 0);
-        }
+    // moves the clock straight to the next event, nothing else can wake the CPU
+    // false if there is no event and no deadline, then only a button press from outside can
+    private boolean skipHalted(long deadline) {
+        long stop = Math.min(scheduler.next, deadline);
+        if (stop == Long.MAX_VALUE)
+            return false;
+        if (time < stop)
+            time = stop;
+        return true;
+    }
 
-        boolean getZero() {
-            return (value & (1 << 7)) > 0;
-        }
+    /**
+     * Called when a conditional branch jumps back to regs.pc. If the loop in between only polls a
+     * register that changes on scheduled events, every iteration before the next event (or the
+     * deadline) reads the same value and leaves the same registers, so the clock skips over as many
+     * whole iterations as fit. The iteration the event lands in still runs normally, and so does
+     * the one after it, since its registers may come from a value read before the event.
+     */
+    private void skipIdleLoop(int branch, int branchCycles) {
+        if (!skipIdleLoops)
+            return;
 
-        boolean getSubtract() {
-            return (value & (1 << 6)) > 0;
-        }
+        int cycles = idleLoopCycles(regs.pc, branch);
+        if (cycles == 0)
+            return;
 
-        boolean getHalfCarry() {
-            return (value & (1 << 5)) > 0;
-        }
+        cycles += branchCycles;
+        if (time - cycles < settled)
+            return;
 
-        boolean getCarry() {
-            return (value & (1 << 4)) > 0;
-        }
+        //with nothing scheduled and no deadline the loop polls forever, there is nothing to skip to
+        long stop = Math.min(scheduler.next, deadline);
+        if (stop == Long.MAX_VALUE)
+            return;
 
-        void set(boolean b, int i) {
-            if (b) {
-                value |= 1 << i;
-            } else {
-                value &= 0xFF - (1 << i);
+        long iterations = (stop - time) / cycles;
+        if (iterations <= 0)
+            return;
+
+        time += iterations * cycles;
+        idleLoopHits++;
+        idleCyclesSkipped += iterations * cycles;
+    }
+
+    // cycles of the loop body from start up to branch, 0 if it is not a load from a polled register followed by tests of A
+    private int idleLoopCycles(int start, int branch) {
+        int address = start;
+        int instruction = read(address);
+        int register;
+        switch (instruction) {
+            case 0xF0: register = read(address + 1); address += 2; break;
+            case 0xF2: register = regs.r[C]; address += 1; break;
+            case 0xFA:
+                if (read(address + 2) != 0xFF)
+                    return 0;
+                register = read(address + 1);
+                address += 3;
+                break;
+            default: return 0;
+        }
+        if (!changedByEvents(register))
+            return 0;
+
+        int cycles = CYCLES[instruction];
+        while (address < branch) {
+            instruction = read(address);
+            switch (instruction) {
+                case 0xA7: case 0xB7: //AND A, OR A
+                    cycles += 4;
+                    address += 1;
+                    break;
+                case 0xE6: case 0xEE: case 0xF6: case 0xFE: //AND, XOR, OR, CP with an immediate
+                    cycles += 8;
+                    address += 2;
+                    break;
+                case 0xCB:
+                    if ((read(address + 1) & 0xC7) != 0x47) //BIT n,A
+                        return 0;
+                    cycles += 8;
+                    address += 2;
+                    break;
+                default:
+                    return 0;
             }
         }
+        return address == branch ? cycles : 0;
+    }
+
+    // registers whose value only changes when the scheduler dispatches an event or between runs
+    private static boolean changedByEvents(int register) {
+        switch (register) {
+            case 0x00: //P1, buttons only change between runs
+            case 0x02: //SC
+            case 0x0F: //IF
+            case 0x41: //STAT
+            case 0x44: //LY
+                return true;
+            default:
+                return false;
+        }
     }
 
-    private Register8 a, b, c, d, e, h, l;
-    private Flags f;
-    private Register16 sp, pc;
-    private Memory memory;
-    private boolean interruptsEnabled;
-
-    private long time;
+    /**
+     * Turns skipping of idle polling loops on or off, it is on by default.
+     */
+    public void setIdleLoopSkipping(boolean enabled) {
+        skipIdleLoops = enabled;
+    }
 
-    public CPU(Memory memory){
-        this.memory = memory;
-        a = new Register8((char) 0); //accumulator
-        f = new Flags(); //flags
-        b = new Register8((char) 0);
-        c = new Register8((char) 0);
-        d = new Register8((char) 0);
-        e = new Register8((char) 0);
-        h = new Register8((char) 0);
-        l = new Register8((char) 0);
-        sp = new Register16((char) 0); //stack pointer
-        pc = new Register16((char) 0); //program counter
+    public long getIdleLoopHits() {
+        return idleLoopHits;
+    }
 
-        interruptsEnabled = false; //check if interrupts start disabled
+    public long getIdleCyclesSkipped() {
+        return idleCyclesSkipped;
+    }
 
-        time = 0;
+    private void executeHaltBug() {
+        haltBug = false;
+        int instruction = read(regs.pc);
+        if (dispatch == Dispatch.SWITCH)
+            interpret(instruction);
+        else
+            execute(instruction);
     }
 
-    public void run() throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException, InstructionNotImplementedException, InvalidInstructionException {
-        while (true) {
-            interpret(getByteFromMemory());
+    private void serviceInterrupts() {
+        if (halted) {
+            halted = stopped ? (interrupts.flags & (1 << Interrupts.JOYPAD)) == 0 : interrupts.pending() == 0;
+            if (halted)
+                return;
+            stopped = false;
         }
+
+        int pending = interrupts.pending();
+        if (!interruptsEnabled || pending == 0)
+            return;
+
+        int interrupt = Integer.numberOfTrailingZeros(pending);
+        interrupts.flags &= ~(1 << interrupt);
+        interruptsEnabled = false;
+
+        push(regs.pc);
+        regs.pc = 0x40 + interrupt * 8;
+        time += 20;
     }
 
-    private char popByteFromStack() throws InvalidMemoryReadLocationException, IOException {
-        return memory.read(sp.value++);
+    public long getTime() {
+        return time;
     }
 
-    private void pushByteToStack(char b) throws InvalidMemoryWriteLocationException {
-        memory.write(sp.value--, b);
+    Cartridge getCartridge() {
+        return memory.cart;
     }
 
-    private char getAddressFromMemory() throws InvalidMemoryReadLocationException, IOException {
-        return getAddress(memory.read(pc.getAndIncrement()), memory.read(pc.getAndIncrement()));
+    void save(ByteBuffer state) {
+        regs.flags();
+        for (int value : regs.r)
+            state.put((byte) value);
+        state.putShort((short) regs.sp).putShort((short) regs.pc);
+        state.put((byte) (interruptsEnabled ? 1 : 0));
+        state.put((byte) ((halted ? 1 : 0) | (stopped ? 2 : 0) | (haltBug ? 4 : 0)));
+        state.putLong(time);
+        memory.save(state);
     }
 
-    private char getHighRamAddress(char b) {
-        return (char) (b + 0x9900);
+    // a restored machine also forgets any fault
+    void restore(ByteBuffer state) {
+        for (int i = 0; i < regs.r.length; i++)
+            regs.r[i] = state.get() & 0xFF;
+        regs.setFlags(regs.r[F]); //drops any pending lazy flags
+        regs.sp = state.getShort() & 0xFFFF;
+        regs.pc = state.getShort() & 0xFFFF;
+        interruptsEnabled = state.get() != 0;
+        int halt = state.get();
+        halted = (halt & 1) != 0;
+        stopped = (halt & 2) != 0;
+        haltBug = (halt & 4) != 0;
+        time = state.getLong();
+        memory.restore(state);
+        fault = null;
     }
 
-    private char getAddress(char b, char c) {
-        return (char) (c * 256 + b);
+    // runs cold code through the handler table up to the end of its block
+    private void interpretBlock() {
+        int instruction;
+        do {
+            instruction = getByteFromMemory();
+            execute(instruction);
+        } while (!BlockTranslator.ENDS_BLOCK[instruction] && time < scheduler.next && time < deadline);
     }
 
-    private int getByteFromMemory() throws InvalidMemoryReadLocationException, IOException {
-        return memory.read(pc.getAndIncrement());
+    //called by translated blocks between instructions, true if the loop has to stop within the next ahead cycles
+    private boolean blockInterrupted(int ahead) {
+        return time + ahead >= scheduler.next || time + ahead >= deadline;
     }
 
-    private char getWordFromMemory() throws InvalidMemoryReadLocationException, IOException {
-        return getWord(memory.read(pc.getAndIncrement()), memory.read(pc.getAndIncrement()));
+    private void execute(int instruction) {
+        time += CYCLES[instruction];
+        operations[instruction].execute();
     }
 
-    private char getWord(char top, char bottom) {
-        return (char) (bottom * 256 + top);
+    private void executeCB(int instruction) {
+        time += CB_CYCLES[instruction];
+        cbOperations[instruction].execute();
     }
 
-    private void interpret(int instruction) throws InstructionNotImplementedException, InvalidInstructionException, InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
+    private int read(int address) {
+        return memory.read((char) address);
+    }
+
+    private void write(int address, int value) {
+        memory.write((char) address, (char) value);
+    }
+
+    private int popByteFromStack() {
+        int value = read(regs.sp);
+        regs.sp = (regs.sp + 1) & 0xFFFF;
+        return value;
+    }
+
+    private void pushByteToStack(int b) {
+        regs.sp = (regs.sp - 1) & 0xFFFF;
+        write(regs.sp, b);
+    }
+
+    private int getAddressFromMemory() {
+        return getWordFromMemory();
+    }
+
+    private int getAddress(int low, int high) {
+        return (high << 8) | low;
+    }
+
+    private int getByteFromMemory() {
+        int value = read(regs.pc);
+        regs.pc = (regs.pc + 1) & 0xFFFF;
+        return value;
+    }
+
+    private int getWordFromMemory() {
+        int low = getByteFromMemory();
+        return getAddress(low, getByteFromMemory());
+    }
+
+    private void interpret(int instruction) {
+        time += CYCLES[instruction];
+
         switch (instruction) {
             case 0x00: nop(); break;
-            case 0x01: loadRegisters16(b, c, getWordFromMemory()); break;
-            case 0x02: loadMemory8(getAddress(b.value, c.value), a); break;
-            case 0x03: increment(b, c); break;
-            case 0x04: increment(b); break;
-            case 0x05: decrement(b); break;
-            case 0x06: loadValueToRegister8(b, (char) getByteFromMemory()); break;
+            case 0x01: loadRegisters16(B, getWordFromMemory()); break;
+            case 0x02: loadMemory8(regs.getBC(), A); break;
+            case 0x03: incrementPair(B); break;
+            case 0x04: increment(B); break;
+            case 0x05: decrement(B); break;
+            case 0x06: loadValueToRegister8(B, getByteFromMemory()); break;
             case 0x07: rotateLeftCarryAccumulator(); break;
-            case 0x08: loadMemory16(getAddressFromMemory(), sp.value); break;
-            case 0x09: add16(h, l, b, c); break;
-            case 0x0A: loadRegister8(a, getAddress(b.value, c.value)); break;
-            case 0x0B: decrement(b, c);
-            case 0x0C: increment(c); break;
-            case 0x0D: decrement(c); break;
-            case 0x0E: loadValueToRegister8(c, (char) getByteFromMemory()); break;
+            case 0x08: storeStackPointer(getAddressFromMemory()); break;
+            case 0x09: add16(regs.getBC()); break;
+            case 0x0A: loadMemoryToRegister8(A, regs.getBC()); break;
+            case 0x0B: decrementPair(B); break;
+            case 0x0C: increment(C); break;
+            case 0x0D: decrement(C); break;
+            case 0x0E: loadValueToRegister8(C, getByteFromMemory()); break;
             case 0x0F: rotateRightCarryAccumulator(); break;
 
-            case 0x10: stop(); pc.getAndIncrement(); break;
-            case 0x11: loadRegisters16(d, e, getWordFromMemory()); break;
-            case 0x12: loadMemory8(getAddress(d.value, e.value), a); break;
-            case 0x13: increment(d, e); break;
-            case 0x14: increment(d); break;
-            case 0x15: decrement(d); break;
-            case 0x16: loadValueToRegister8(d, (char) getByteFromMemory()); break;
+            case 0x10: stop(); break;
+            case 0x11: loadRegisters16(D, getWordFromMemory()); break;
+            case 0x12: loadMemory8(regs.getDE(), A); break;
+            case 0x13: incrementPair(D); break;
+            case 0x14: increment(D); break;
+            case 0x15: decrement(D); break;
+            case 0x16: loadValueToRegister8(D, getByteFromMemory()); break;
             case 0x17: rotateLeftAccumulator(); break;
             case 0x18: jumpRelative((byte) getByteFromMemory()); break;
-            case 0x19: add16(h, l, d, e); break;
-            case 0x1A: loadRegister8(a, getAddress(d.value, e.value)); break;
-            case 0x1B: decrement(d, e);
-            case 0x1C: increment(e); break;
-            case 0x1D: decrement(e); break;
-            case 0x1E: loadValueToRegister8(e, (char) getByteFromMemory()); break;
+            case 0x19: add16(regs.getDE()); break;
+            case 0x1A: loadMemoryToRegister8(A, regs.getDE()); break;
+            case 0x1B: decrementPair(D); break;
+            case 0x1C: increment(E); break;
+            case 0x1D: decrement(E); break;
+            case 0x1E: loadValueToRegister8(E, getByteFromMemory()); break;
             case 0x1F: rotateRightAccumulator(); break;
 
-            case 0x20: jumpRelative(!f.getZero(), (byte) getByteFromMemory()); break;
-            case 0x21: loadRegisters16(h, l, getWordFromMemory()); break;
-            case 0x22: loadIncrement(h, l, a.value);
-            case 0x23: increment(h, l); break;
-            case 0x24: increment(h); break;
-            case 0x25: decrement(h); break;
-            case 0x26: loadValueToRegister8(h, (char) getByteFromMemory()); break;
+            case 0x20: jumpRelative(!regs.getZero(), (byte) getByteFromMemory()); break;
+            case 0x21: loadRegisters16(H, getWordFromMemory()); break;
+            case 0x22: storeIncrement(); break;
+            case 0x23: incrementPair(H); break;
+            case 0x24: increment(H); break;
+            case 0x25: decrement(H); break;
+            case 0x26: loadValueToRegister8(H, getByteFromMemory()); break;
             case 0x27: decimalAdjustAccumulator(); break;
-            case 0x28: jumpRelative(f.getZero(), (byte) getByteFromMemory()); break;
-            case 0x29: add16(h, l, h, l); break;
-            case 0x2A: loadIncrement(a, h, l);
-            case 0x2B: decrement(h, l);
-            case 0x2C: increment(l); break;
-            case 0x2D: decrement(l); break;
-            case 0x2E: loadValueToRegister8(l, (char) getByteFromMemory()); break;
+            case 0x28: jumpRelative(regs.getZero(), (byte) getByteFromMemory()); break;
+            case 0x29: add16(regs.getHL()); break;
+            case 0x2A: loadIncrement(); break;
+            case 0x2B: decrementPair(H); break;
+            case 0x2C: increment(L); break;
+            case 0x2D: decrement(L); break;
+            case 0x2E: loadValueToRegister8(L, getByteFromMemory()); break;
             case 0x2F: complementAccumulator(); break;
 
-            case 0x30: jumpRelative(!f.getCarry(), (byte) getByteFromMemory()); break;
-            case 0x31: loadRegisters16(sp, getWordFromMemory()); break;
-            case 0x32: loadDecrement(h, l, a.value);
-            case 0x33: increment(sp); break;
-            case 0x34: increment(getAddress(h.value, l.value)); break;
-            case 0x35: decrement(getAddress(h.value, l.value)); break;
-            case 0x36: loadRegister8(getAddress(h.value, l.value), (char) getByteFromMemory()); break;
+            case 0x30: jumpRelative(!regs.getCarry(), (byte) getByteFromMemory()); break;
+            case 0x31: loadStackPointer(getWordFromMemory()); break;
+            case 0x32: storeDecrement(); break;
+            case 0x33: incrementStackPointer(); break;
+            case 0x34: incrementMemory(regs.getHL()); break;
+            case 0x35: decrementMemory(regs.getHL()); break;
+            case 0x36: loadValueToMemory8(regs.getHL(), getByteFromMemory()); break;
             case 0x37: setCarryFlag(); break;
-            case 0x38: jumpRelative(f.getCarry(), (byte) getByteFromMemory()); break;
-            case 0x39: add16(h, l, sp); break;
-            case 0x3A: loadDecrement(a, h, l);
-            case 0x3B: decrement(sp);
-            case 0x3C: increment(a); break;
-            case 0x3D: decrement(a); break;
-            case 0x3E: loadValueToRegister8(a, (char) getByteFromMemory()); break;
+            case 0x38: jumpRelative(regs.getCarry(), (byte) getByteFromMemory()); break;
+            case 0x39: add16(regs.sp); break;
+            case 0x3A: loadDecrement(); break;
+            case 0x3B: decrementStackPointer(); break;
+            case 0x3C: increment(A); break;
+            case 0x3D: decrement(A); break;
+            case 0x3E: loadValueToRegister8(A, getByteFromMemory()); break;
             case 0x3F: complementCarryFlag(); break;
 
-            case 0x40: loadRegister8(b, b); break;
-            case 0x41: loadRegister8(b, c); break;
-            case 0x42: loadRegister8(b, d); break;
-            case 0x43: loadRegister8(b, e); break;
-            case 0x44: loadRegister8(b, h); break;
-            case 0x45: loadRegister8(b, l); break;
-            case 0x46: loadRegister8(b, getAddress(h.value, l.value)); break;
-            case 0x47: loadRegister8(b, a); break;
-            case 0x48: loadRegister8(c, b); break;
-            case 0x49: loadRegister8(c, c); break;
-            case 0x4A: loadRegister8(c, d); break;
-            case 0x4B: loadRegister8(c, e); break;
-            case 0x4C: loadRegister8(c, h); break;
-            case 0x4D: loadRegister8(c, l); break;
-            case 0x4E: loadRegister8(c, getAddress(h.value, l.value)); break;
-            case 0x4F: loadRegister8(c, a); break;
-
-            case 0x50: loadRegister8(d, b); break;
-            case 0x51: loadRegister8(d, c); break;
-            case 0x52: loadRegister8(d, d); break;
-            case 0x53: loadRegister8(d, e); break;
-            case 0x54: loadRegister8(d, h); break;
-            case 0x55: loadRegister8(d, l); break;
-            case 0x56: loadRegister8(d, getAddress(h.value, l.value)); break;
-            case 0x57: loadRegister8(d, a); break;
-            case 0x58: loadRegister8(e, b); break;
-            case 0x59: loadRegister8(e, c); break;
-            case 0x5A: loadRegister8(e, d); break;
-            case 0x5B: loadRegister8(e, e); break;
-            case 0x5C: loadRegister8(e, h); break;
-            case 0x5D: loadRegister8(e, l); break;
-            case 0x5E: loadRegister8(e, getAddress(h.value, l.value)); break;
-            case 0x5F: loadRegister8(e, a); break;
-
-            case 0x60: loadRegister8(h, b); break;
-            case 0x61: loadRegister8(h, c); break;
-            case 0x62: loadRegister8(h, d); break;
-            case 0x63: loadRegister8(h, e); break;
-            case 0x64: loadRegister8(h, h); break;
-            case 0x65: loadRegister8(h, l); break;
-            case 0x66: loadRegister8(h, getAddress(h.value, l.value)); break;
-            case 0x67: loadRegister8(h, a); break;
-            case 0x68: loadRegister8(l, b); break;
-            case 0x69: loadRegister8(l, c); break;
-            case 0x6A: loadRegister8(l, d); break;
-            case 0x6B: loadRegister8(l, e); break;
-            case 0x6C: loadRegister8(l, h); break;
-            case 0x6D: loadRegister8(l, l); break;
-            case 0x6E: loadRegister8(l, getAddress(h.value, l.value)); break;
-            case 0x6F: loadRegister8(l, a); break;
-
-            case 0x70: loadMemory8(getAddress(h.value, l.value), b); break;
-            case 0x71: loadMemory8(getAddress(h.value, l.value), c); break;
-            case 0x72: loadMemory8(getAddress(h.value, l.value), d); break;
-            case 0x73: loadMemory8(getAddress(h.value, l.value), e); break;
-            case 0x74: loadMemory8(getAddress(h.value, l.value), h); break;
-            case 0x75: loadMemory8(getAddress(h.value, l.value), l); break;
+            case 0x40: loadRegister8(B, B); break;
+            case 0x41: loadRegister8(B, C); break;
+            case 0x42: loadRegister8(B, D); break;
+            case 0x43: loadRegister8(B, E); break;
+            case 0x44: loadRegister8(B, H); break;
+            case 0x45: loadRegister8(B, L); break;
+            case 0x46: loadMemoryToRegister8(B, regs.getHL()); break;
+            case 0x47: loadRegister8(B, A); break;
+            case 0x48: loadRegister8(C, B); break;
+            case 0x49: loadRegister8(C, C); break;
+            case 0x4A: loadRegister8(C, D); break;
+            case 0x4B: loadRegister8(C, E); break;
+            case 0x4C: loadRegister8(C, H); break;
+            case 0x4D: loadRegister8(C, L); break;
+            case 0x4E: loadMemoryToRegister8(C, regs.getHL()); break;
+            case 0x4F: loadRegister8(C, A); break;
+
+            case 0x50: loadRegister8(D, B); break;
+            case 0x51: loadRegister8(D, C); break;
+            case 0x52: loadRegister8(D, D); break;
+            case 0x53: loadRegister8(D, E); break;
+            case 0x54: loadRegister8(D, H); break;
+            case 0x55: loadRegister8(D, L); break;
+            case 0x56: loadMemoryToRegister8(D, regs.getHL()); break;
+            case 0x57: loadRegister8(D, A); break;
+            case 0x58: loadRegister8(E, B); break;
+            case 0x59: loadRegister8(E, C); break;
+            case 0x5A: loadRegister8(E, D); break;
+            case 0x5B: loadRegister8(E, E); break;
+            case 0x5C: loadRegister8(E, H); break;
+            case 0x5D: loadRegister8(E, L); break;
+            case 0x5E: loadMemoryToRegister8(E, regs.getHL()); break;
+            case 0x5F: loadRegister8(E, A); break;
+
+            case 0x60: loadRegister8(H, B); break;
+            case 0x61: loadRegister8(H, C); break;
+            case 0x62: loadRegister8(H, D); break;
+            case 0x63: loadRegister8(H, E); break;
+            case 0x64: loadRegister8(H, H); break;
+            case 0x65: loadRegister8(H, L); break;
+            case 0x66: loadMemoryToRegister8(H, regs.getHL()); break;
+            case 0x67: loadRegister8(H, A); break;
+            case 0x68: loadRegister8(L, B); break;
+            case 0x69: loadRegister8(L, C); break;
+            case 0x6A: loadRegister8(L, D); break;
+            case 0x6B: loadRegister8(L, E); break;
+            case 0x6C: loadRegister8(L, H); break;
+            case 0x6D: loadRegister8(L, L); break;
+            case 0x6E: loadMemoryToRegister8(L, regs.getHL()); break;
+            case 0x6F: loadRegister8(L, A); break;
+
+            case 0x70: loadMemory8(regs.getHL(), B); break;
+            case 0x71: loadMemory8(regs.getHL(), C); break;
+            case 0x72: loadMemory8(regs.getHL(), D); break;
+            case 0x73: loadMemory8(regs.getHL(), E); break;
+            case 0x74: loadMemory8(regs.getHL(), H); break;
+            case 0x75: loadMemory8(regs.getHL(), L); break;
             case 0x76: halt(); break;
-            case 0x77: loadMemory8(getAddress(h.value, l.value), a); break;
-            case 0x78: loadRegister8(a, b); break;
-            case 0x79: loadRegister8(a, c); break;
-            case 0x7A: loadRegister8(a, d); break;
-            case 0x7B: loadRegister8(a, e); break;
-            case 0x7C: loadRegister8(a, h); break;
-            case 0x7D: loadRegister8(a, l); break;
-            case 0x7E: loadRegister8(a, getAddress(h.value, l.value)); break;
-            case 0x7F: loadRegister8(a, a); break;
-
-            case 0x80: add8(b); break;
-            case 0x81: add8(c); break;
-            case 0x82: add8(d); break;
-            case 0x83: add8(e); break;
-            case 0x84: add8(h); break;
-            case 0x85: add8(l); break;
-            case 0x86: add8(memory.read(getAddress(h.value, l.value))); break;
-            case 0x87: add8(a); break;
-            case 0x88: adc8(b); break;
-            case 0x89: adc8(c); break;
-            case 0x8A: adc8(d); break;
-            case 0x8B: adc8(e); break;
-            case 0x8C: adc8(h); break;
-            case 0x8D: adc8(l); break;
-            case 0x8E: adc8(memory.read(getAddress(h.value, l.value))); break;
-            case 0x8F: adc8(a); break;
-
-            case 0x90: sub8(b); break;
-            case 0x91: sub8(c); break;
-            case 0x92: sub8(d); break;
-            case 0x93: sub8(e); break;
-            case 0x94: sub8(h); break;
-            case 0x95: sub8(l); break;
-            case 0x96: sub8(memory.read(getAddress(h.value, l.value))); break;
-            case 0x97: sub8(a); break;
-            case 0x98: sbc8(b); break;
-            case 0x99: sbc8(c); break;
-            case 0x9A: sbc8(d); break;
-            case 0x9B: sbc8(e); break;
-            case 0x9C: sbc8(h); break;
-            case 0x9D: sbc8(l); break;
-            case 0x9E: sbc8(memory.read(getAddress(h.value, l.value))); break;
-            case 0x9F: sbc8(a); break;
-
-            case 0xA0: and8(b); break;
-            case 0xA1: and8(c); break;
-            case 0xA2: and8(d); break;
-            case 0xA3: and8(e); break;
-            case 0xA4: and8(h); break;
-            case 0xA5: and8(l); break;
-            case 0xA6: and8(memory.read(getAddress(h.value, l.value))); break;
-            case 0xA7: and8(a); break;
-            case 0xA8: xor8(b); break;
-            case 0xA9: xor8(c); break;
-            case 0xAA: xor8(d); break;
-            case 0xAB: xor8(e); break;
-            case 0xAC: xor8(h); break;
-            case 0xAD: xor8(l); break;
-            case 0xAE: xor8(memory.read(getAddress(h.value, l.value))); break;
-            case 0xAF: xor8(a); break;
-
-            case 0xB0: or8(b); break;
-            case 0xB1: or8(c); break;
-            case 0xB2: or8(d); break;
-            case 0xB3: or8(e); break;
-            case 0xB4: or8(h); break;
-            case 0xB5: or8(l); break;
-            case 0xB6: or8(memory.read(getAddress(h.value, l.value))); break;
-            case 0xB7: or8(a); break;
-            case 0xB8: cp8(b); break;
-            case 0xB9: cp8(c); break;
-            case 0xBA: cp8(d); break;
-            case 0xBB: cp8(e); break;
-            case 0xBC: cp8(h); break;
-            case 0xBD: cp8(l); break;
-            case 0xBE: cp8(memory.read(getAddress(h.value, l.value))); break;
-            case 0xBF: cp8(a); break;
-
-            case 0xC0: ret(!f.getZero()); break;
-            case 0xC1: pop(b, c); break;
-            case 0xC2: jumpAbsolute(!f.getZero(), getAddressFromMemory()); break;
-            case 0xC3: jumpAbsolute(true, getAddressFromMemory()); break;
-            case 0xC4: call(!f.getZero(), getAddressFromMemory()); break;
-            case 0xC5: push(getWord(b.value, c.value)); break;
-            case 0xC6: add8((char) getByteFromMemory()); break;
+            case 0x77: loadMemory8(regs.getHL(), A); break;
+            case 0x78: loadRegister8(A, B); break;
+            case 0x79: loadRegister8(A, C); break;
+            case 0x7A: loadRegister8(A, D); break;
+            case 0x7B: loadRegister8(A, E); break;
+            case 0x7C: loadRegister8(A, H); break;
+            case 0x7D: loadRegister8(A, L); break;
+            case 0x7E: loadMemoryToRegister8(A, regs.getHL()); break;
+            case 0x7F: loadRegister8(A, A); break;
+
+            case 0x80: add8(regs.r[B]); break;
+            case 0x81: add8(regs.r[C]); break;
+            case 0x82: add8(regs.r[D]); break;
+            case 0x83: add8(regs.r[E]); break;
+            case 0x84: add8(regs.r[H]); break;
+            case 0x85: add8(regs.r[L]); break;
+            case 0x86: add8(read(regs.getHL())); break;
+            case 0x87: add8(regs.r[A]); break;
+            case 0x88: adc8(regs.r[B]); break;
+            case 0x89: adc8(regs.r[C]); break;
+            case 0x8A: adc8(regs.r[D]); break;
+            case 0x8B: adc8(regs.r[E]); break;
+            case 0x8C: adc8(regs.r[H]); break;
+            case 0x8D: adc8(regs.r[L]); break;
+            case 0x8E: adc8(read(regs.getHL())); break;
+            case 0x8F: adc8(regs.r[A]); break;
+
+            case 0x90: sub8(regs.r[B]); break;
+            case 0x91: sub8(regs.r[C]); break;
+            case 0x92: sub8(regs.r[D]); break;
+            case 0x93: sub8(regs.r[E]); break;
+            case 0x94: sub8(regs.r[H]); break;
+            case 0x95: sub8(regs.r[L]); break;
+            case 0x96: sub8(read(regs.getHL())); break;
+            case 0x97: sub8(regs.r[A]); break;
+            case 0x98: sbc8(regs.r[B]); break;
+            case 0x99: sbc8(regs.r[C]); break;
+            case 0x9A: sbc8(regs.r[D]); break;
+            case 0x9B: sbc8(regs.r[E]); break;
+            case 0x9C: sbc8(regs.r[H]); break;
+            case 0x9D: sbc8(regs.r[L]); break;
+            case 0x9E: sbc8(read(regs.getHL())); break;
+            case 0x9F: sbc8(regs.r[A]); break;
+
+            case 0xA0: and8(regs.r[B]); break;
+            case 0xA1: and8(regs.r[C]); break;
+            case 0xA2: and8(regs.r[D]); break;
+            case 0xA3: and8(regs.r[E]); break;
+            case 0xA4: and8(regs.r[H]); break;
+            case 0xA5: and8(regs.r[L]); break;
+            case 0xA6: and8(read(regs.getHL())); break;
+            case 0xA7: and8(regs.r[A]); break;
+            case 0xA8: xor8(regs.r[B]); break;
+            case 0xA9: xor8(regs.r[C]); break;
+            case 0xAA: xor8(regs.r[D]); break;
+            case 0xAB: xor8(regs.r[E]); break;
+            case 0xAC: xor8(regs.r[H]); break;
+            case 0xAD: xor8(regs.r[L]); break;
+            case 0xAE: xor8(read(regs.getHL())); break;
+            case 0xAF: xor8(regs.r[A]); break;
+
+            case 0xB0: or8(regs.r[B]); break;
+            case 0xB1: or8(regs.r[C]); break;
+            case 0xB2: or8(regs.r[D]); break;
+            case 0xB3: or8(regs.r[E]); break;
+            case 0xB4: or8(regs.r[H]); break;
+            case 0xB5: or8(regs.r[L]); break;
+            case 0xB6: or8(read(regs.getHL())); break;
+            case 0xB7: or8(regs.r[A]); break;
+            case 0xB8: cp8(regs.r[B]); break;
+            case 0xB9: cp8(regs.r[C]); break;
+            case 0xBA: cp8(regs.r[D]); break;
+            case 0xBB: cp8(regs.r[E]); break;
+            case 0xBC: cp8(regs.r[H]); break;
+            case 0xBD: cp8(regs.r[L]); break;
+            case 0xBE: cp8(read(regs.getHL())); break;
+            case 0xBF: cp8(regs.r[A]); break;
+
+            case 0xC0: ret(!regs.getZero()); break;
+            case 0xC1: regs.setBC(pop()); break;
+            case 0xC2: jumpAbsolute(!regs.getZero(), getAddressFromMemory()); break;
+            case 0xC3: jumpAbsolute(getAddressFromMemory()); break;
+            case 0xC4: call(!regs.getZero(), getAddressFromMemory()); break;
+            case 0xC5: push(regs.getBC()); break;
+            case 0xC6: add8(getByteFromMemory()); break;
             case 0xC7: restart(0x00); break;
-            case 0xC8: ret(f.getZero()); break;
+            case 0xC8: ret(regs.getZero()); break;
             case 0xC9: absoluteReturn(); break;
-            case 0xCA: jumpAbsolute(f.getZero(), getAddressFromMemory()); break;
+            case 0xCA: jumpAbsolute(regs.getZero(), getAddressFromMemory()); break;
             case 0xCB: prefixCB(getByteFromMemory()); break;
-            case 0xCC: call(f.getZero(), getAddressFromMemory()); break;
-            case 0xCD: call(true, getAddressFromMemory()); break;
-            case 0xCE: adc8((char) getByteFromMemory());
+            case 0xCC: call(regs.getZero(), getAddressFromMemory()); break;
+            case 0xCD: call(getAddressFromMemory()); break;
+            case 0xCE: adc8(getByteFromMemory()); break;
             case 0xCF: restart(0x08); break;
 
-            case 0xD0: ret(!f.getCarry()); break;
-            case 0xD1: pop(d, e); break;
-            case 0xD2: jumpAbsolute(!f.getCarry(), getAddressFromMemory()); break;
-            case 0xD4: call(!f.getCarry(), getAddressFromMemory()); break;
-            case 0xD5: push(getWord(d.value, e.value)); break;
-            case 0xD6: sub8((char) getByteFromMemory()); break;
+            case 0xD0: ret(!regs.getCarry()); break;
+            case 0xD1: regs.setDE(pop()); break;
+            case 0xD2: jumpAbsolute(!regs.getCarry(), getAddressFromMemory()); break;
+            case 0xD4: call(!regs.getCarry(), getAddressFromMemory()); break;
+            case 0xD5: push(regs.getDE()); break;
+            case 0xD6: sub8(getByteFromMemory()); break;
             case 0xD7: restart(0x10); break;
-            case 0xD8: ret(f.getCarry()); break;
+            case 0xD8: ret(regs.getCarry()); break;
             case 0xD9: returnInterrupt(); break;
-            case 0xDA: jumpAbsolute(f.getCarry(), getAddressFromMemory()); break;
-            case 0xDC: call(f.getCarry(), getAddressFromMemory()); break;
-            case 0xDE: sbc8((char) getByteFromMemory());
+            case 0xDA: jumpAbsolute(regs.getCarry(), getAddressFromMemory()); break;
+            case 0xDC: call(regs.getCarry(), getAddressFromMemory()); break;
+            case 0xDE: sbc8(getByteFromMemory()); break;
             case 0xDF: restart(0x18); break;
 
-            case 0xE0: loadHigh(getByteFromMemory(), a);
-            case 0xE1: pop(h, l); break;
-            case 0xE2: loadMemory8(getHighRamAddress(c.value), a); //check
-            case 0xE5: push(getWord(h.value, l.value)); break;
-            case 0xE6: and8((char) getByteFromMemory()); break;
+            case 0xE0: storeHigh(getByteFromMemory()); break;
+            case 0xE1: regs.setHL(pop()); break;
+            case 0xE2: storeHigh(regs.r[C]); break;
+            case 0xE5: push(regs.getHL()); break;
+            case 0xE6: and8(getByteFromMemory()); break;
             case 0xE7: restart(0x20); break;
-            case 0xE8: add16(sp, getByteFromMemory()); break;
-            case 0xE9: jumpFast(getAddress(h.value, l.value)); //check JP (HL)
-            case 0xEA: time += 8; loadMemory16(getAddressFromMemory(), a.value); break;
-            case 0xEE: xor8((char) getByteFromMemory());
+            case 0xE8: loadStackPointer(offsetStackPointer((byte) getByteFromMemory())); break;
+            case 0xE9: jumpFast(regs.getHL()); break;
+            case 0xEA: loadMemory8(getAddressFromMemory(), A); break;
+            case 0xEE: xor8(getByteFromMemory()); break;
             case 0xEF: restart(0x28); break;
 
-            case 0xF0: loadHigh(a, getByteFromMemory());
-            case 0xF1: pop(b, c); break;
-            case 0xF2: loadRegister8(a, getHighRamAddress(c.value)); //check
+            case 0xF0: loadHigh(getByteFromMemory()); break;
+            case 0xF1: regs.setAF(pop()); break;
+            case 0xF2: loadHigh(regs.r[C]); break;
             case 0xF3: disableInterrupts(); break;
-            case 0xF5: push(getWord(a.value, f.value)); break;
-            case 0xF6: or8((char) getByteFromMemory()); break;
+            case 0xF5: push(regs.getAF()); break;
+            case 0xF6: or8(getByteFromMemory()); break;
             case 0xF7: restart(0x30); break;
-            case 0xF8: loadRegisters16(h, l, (char) (sp.value + getByteFromMemory())); //check LD HL,SP+r8
-            case 0xF9: loadRegisters16(sp, h, l); //check LD SP,HL
-            case 0xFA: time += 8; loadRegister8(a, memory.read(getAddress(h.value, l.value))); break;
+            case 0xF8: loadRegisters16(H, offsetStackPointer((byte) getByteFromMemory())); break;
+            case 0xF9: loadStackPointer(regs.getHL()); break;
+            case 0xFA: loadMemoryToRegister8(A, getAddressFromMemory()); break;
             case 0xFB: enableInterrupts(); break;
-            case 0xFE: cp8((char) getByteFromMemory()); break;
+            case 0xFE: cp8(getByteFromMemory()); break;
             case 0xFF: restart(0x38); break;
 
-            default: throw new InvalidInstructionException(String.format("%02X", instruction));
+            default: fault(new InvalidInstructionException(String.format("%02X", instruction)));
         }
     }
 
-    private void prefixCB(int instruction) throws InstructionNotImplementedException, InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException, InvalidInstructionException {
+    private void prefixCB(int instruction) {
+        time += CB_CYCLES[instruction];
+
         switch (instruction) {
-            case 0x00: rotateLeftCarry(b); break;
-            case 0x01: rotateLeftCarry(c); break;
-            case 0x02: rotateLeftCarry(d); break;
-            case 0x03: rotateLeftCarry(e); break;
-            case 0x04: rotateLeftCarry(h); break;
-            case 0x05: rotateLeftCarry(l); break;
-            case 0x06: rotateLeftCarry(memory.read(getAddress(h, l))); break;
-            case 0x07: rotateLeftCarry(a); break;
-            case 0x08: rotateRightCarry(b); break;
-            case 0x09: rotateRightCarry(c); break;
-            case 0x0A: rotateRightCarry(d); break;
-            case 0x0B: rotateRightCarry(e); break;
-            case 0x0C: rotateRightCarry(h); break;
-            case 0x0D: rotateRightCarry(l); break;
-            case 0x0E: rotateRightCarry(memory.read(getAddress(h, l))); break;
-            case 0x0F: rotateRightCarry(a); break;
-
-            case 0x10: rotateLeft(b); break;
-            case 0x11: rotateLeft(c); break;
-            case 0x12: rotateLeft(d); break;
-            case 0x13: rotateLeft(e); break;
-            case 0x14: rotateLeft(h); break;
-            case 0x15: rotateLeft(l); break;
-            case 0x16: rotateLeft(memory.read(getAddress(h, l))); break;
-            case 0x17: rotateLeft(a); break;
-            case 0x18: rotateRight(b); break;
-            case 0x19: rotateRight(c); break;
-            case 0x1A: rotateRight(d); break;
-            case 0x1B: rotateRight(e); break;
-            case 0x1C: rotateRight(h); break;
-            case 0x1D: rotateRight(l); break;
-            case 0x1E: rotateRight(memory.read(getAddress(h, l))); break;
-            case 0x1F: rotateRight(a); break;
-
-            case 0x20: shiftLeftA(b); break;
-            case 0x21: shiftLeftA(c); break;
-            case 0x22: shiftLeftA(d); break;
-            case 0x23: shiftLeftA(e); break;
-            case 0x24: shiftLeftA(h); break;
-            case 0x25: shiftLeftA(l); break;
-            case 0x26: shiftLeftA(memory.read(getAddress(h, l))); break;
-            case 0x27: shiftLeftA(a); break;
-            case 0x28: shiftRightA(b); break;
-            case 0x29: shiftRightA(c); break;
-            case 0x2A: shiftRightA(d); break;
-            case 0x2B: shiftRightA(e); break;
-            case 0x2C: shiftRightA(h); break;
-            case 0x2D: shiftRightA(l); break;
-            case 0x2E: shiftRightA(memory.read(getAddress(h, l))); break;
-            case 0x2F: shiftRightA(a); break;
-
-            case 0x30: swap(b); break;
-            case 0x31: swap(c); break;
-            case 0x32: swap(d); break;
-            case 0x33: swap(e); break;
-            case 0x34: swap(h); break;
-            case 0x35: swap(l); break;
-            case 0x36: swap(memory.read(getAddress(h, l))); break;
-            case 0x37: swap(a); break;
-            case 0x38: shiftRightL(b); break;
-            case 0x39: shiftRightL(c); break;
-            case 0x3A: shiftRightL(d); break;
-            case 0x3B: shiftRightL(e); break;
-            case 0x3C: shiftRightL(h); break;
-            case 0x3D: shiftRightL(l); break;
-            case 0x3E: shiftRightL(memory.read(getAddress(h, l))); break;
-            case 0x3F: shiftRightL(a); break;
-
-            case 0x40: bit(0, b); break;
-            case 0x41: bit(0, c); break;
-            case 0x42: bit(0, d); break;
-            case 0x43: bit(0, e); break;
-            case 0x44: bit(0, h); break;
-            case 0x45: bit(0, l); break;
-            case 0x46: bit(0, memory.read(getAddress(h, l))); break;
-            case 0x47: bit(0, a); break;
-            case 0x48: bit(1, b); break;
-            case 0x49: bit(1, c); break;
-            case 0x4A: bit(1, d); break;
-            case 0x4B: bit(1, e); break;
-            case 0x4C: bit(1, h); break;
-            case 0x4D: bit(1, l); break;
-            case 0x4E: bit(1, memory.read(getAddress(h, l))); break;
-            case 0x4F: bit(1, a); break;
-
-            case 0x50: bit(2, b); break;
-            case 0x51: bit(2, c); break;
-            case 0x52: bit(2, d); break;
-            case 0x53: bit(2, e); break;
-            case 0x54: bit(2, h); break;
-            case 0x55: bit(2, l); break;
-            case 0x56: bit(2, memory.read(getAddress(h, l))); break;
-            case 0x57: bit(2, a); break;
-            case 0x58: bit(3, b); break;
-            case 0x59: bit(3, c); break;
-            case 0x5A: bit(3, d); break;
-            case 0x5B: bit(3, e); break;
-            case 0x5C: bit(3, h); break;
-            case 0x5D: bit(3, l); break;
-            case 0x5E: bit(3, memory.read(getAddress(h, l))); break;
-            case 0x5F: bit(3, a); break;
-
-            case 0x60: bit(4, b); break;
-            case 0x61: bit(4, c); break;
-            case 0x62: bit(4, d); break;
-            case 0x63: bit(4, e); break;
-            case 0x64: bit(4, h); break;
-            case 0x65: bit(4, l); break;
-            case 0x66: bit(4, memory.read(getAddress(h, l))); break;
-            case 0x67: bit(4, a); break;
-            case 0x68: bit(5, b); break;
-            case 0x69: bit(5, c); break;
-            case 0x6A: bit(5, d); break;
-            case 0x6B: bit(5, e); break;
-            case 0x6C: bit(5, h); break;
-            case 0x6D: bit(5, l); break;
-            case 0x6E: bit(5, memory.read(getAddress(h, l))); break;
-            case 0x6F: bit(5, a); break;
-
-            case 0x70: bit(6, b); break;
-            case 0x71: bit(6, c); break;
-            case 0x72: bit(6, d); break;
-            case 0x73: bit(6, e); break;
-            case 0x74: bit(6, h); break;
-            case 0x75: bit(6, l); break;
-            case 0x76: bit(6, memory.read(getAddress(h, l))); break;
-            case 0x77: bit(6, a); break;
-            case 0x78: bit(7, b); break;
-            case 0x79: bit(7, c); break;
-            case 0x7A: bit(7, d); break;
-            case 0x7B: bit(7, e); break;
-            case 0x7C: bit(7, h); break;
-            case 0x7D: bit(7, l); break;
-            case 0x7E: bit(7, memory.read(getAddress(h, l))); break;
-            case 0x7F: bit(7, a); break;
-
-            case 0x80: reset(0, b); break;
-            case 0x81: reset(0, c); break;
-            case 0x82: reset(0, d); break;
-            case 0x83: reset(0, e); break;
-            case 0x84: reset(0, h); break;
-            case 0x85: reset(0, l); break;
-            case 0x86: reset(0, getAddress(h, l)); break;
-            case 0x87: reset(0, a); break;
-            case 0x88: reset(1, b); break;
-            case 0x89: reset(1, c); break;
-            case 0x8A: reset(1, d); break;
-            case 0x8B: reset(1, e); break;
-            case 0x8C: reset(1, h); break;
-            case 0x8D: reset(1, l); break;
-            case 0x8E: reset(1, getAddress(h, l)); break;
-            case 0x8F: reset(1, a); break;
-
-            case 0x90: reset(2, b); break;
-            case 0x91: reset(2, c); break;
-            case 0x92: reset(2, d); break;
-            case 0x93: reset(2, e); break;
-            case 0x94: reset(2, h); break;
-            case 0x95: reset(2, l); break;
-            case 0x96: reset(2, getAddress(h, l)); break;
-            case 0x97: reset(2, a); break;
-            case 0x98: reset(3, b); break;
-            case 0x99: reset(3, c); break;
-            case 0x9A: reset(3, d); break;
-            case 0x9B: reset(3, e); break;
-            case 0x9C: reset(3, h); break;
-            case 0x9D: reset(3, l); break;
-            case 0x9E: reset(3, getAddress(h, l)); break;
-            case 0x9F: reset(3, a); break;
-
-            case 0xA0: reset(4, b); break;
-            case 0xA1: reset(4, c); break;
-            case 0xA2: reset(4, d); break;
-            case 0xA3: reset(4, e); break;
-            case 0xA4: reset(4, h); break;
-            case 0xA5: reset(4, l); break;
-            case 0xA6: reset(4, getAddress(h, l)); break;
-            case 0xA7: reset(4, a); break;
-            case 0xA8: reset(5, b); break;
-            case 0xA9: reset(5, c); break;
-            case 0xAA: reset(5, d); break;
-            case 0xAB: reset(5, e); break;
-            case 0xAC: reset(5, h); break;
-            case 0xAD: reset(5, l); break;
-            case 0xAE: reset(5, getAddress(h, l)); break;
-            case 0xAF: reset(5, a); break;
-
-            case 0xB0: reset(6, b); break;
-            case 0xB1: reset(6, c); break;
-            case 0xB2: reset(6, d); break;
-            case 0xB3: reset(6, e); break;
-            case 0xB4: reset(6, h); break;
-            case 0xB5: reset(6, l); break;
-            case 0xB6: reset(6, getAddress(h, l)); break;
-            case 0xB7: reset(6, a); break;
-            case 0xB8: reset(7, b); break;
-            case 0xB9: reset(7, c); break;
-            case 0xBA: reset(7, d); break;
-            case 0xBB: reset(7, e); break;
-            case 0xBC: reset(7, h); break;
-            case 0xBD: reset(7, l); break;
-            case 0xBE: reset(7, getAddress(h, l)); break;
-            case 0xBF: reset(7, a); break;
-
-            case 0xC0: set(0, b); break;
-            case 0xC1: set(0, c); break;
-            case 0xC2: set(0, d); break;
-            case 0xC3: set(0, e); break;
-            case 0xC4: set(0, h); break;
-            case 0xC5: set(0, l); break;
-            case 0xC6: set(0, getAddress(h, l)); break;
-            case 0xC7: set(0, a); break;
-            case 0xC8: set(1, b); break;
-            case 0xC9: set(1, c); break;
-            case 0xCA: set(1, d); break;
-            case 0xCB: set(1, e); break;
-            case 0xCC: set(1, h); break;
-            case 0xCD: set(1, l); break;
-            case 0xCE: set(1, getAddress(h, l)); break;
-            case 0xCF: set(1, a); break;
-
-            case 0xD0: set(2, b); break;
-            case 0xD1: set(2, c); break;
-            case 0xD2: set(2, d); break;
-            case 0xD3: set(2, e); break;
-            case 0xD4: set(2, h); break;
-            case 0xD5: set(2, l); break;
-            case 0xD6: set(2, getAddress(h, l)); break;
-            case 0xD7: set(2, a); break;
-            case 0xD8: set(3, b); break;
-            case 0xD9: set(3, c); break;
-            case 0xDA: set(3, d); break;
-            case 0xDB: set(3, e); break;
-            case 0xDC: set(3, h); break;
-            case 0xDD: set(3, l); break;
-            case 0xDE: set(3, getAddress(h, l)); break;
-            case 0xDF: set(3, a); break;
-
-            case 0xE0: set(4, b); break;
-            case 0xE1: set(4, c); break;
-            case 0xE2: set(4, d); break;
-            case 0xE3: set(4, e); break;
-            case 0xE4: set(4, h); break;
-            case 0xE5: set(4, l); break;
-            case 0xE6: set(4, getAddress(h, l)); break;
-            case 0xE7: set(4, a); break;
-            case 0xE8: set(5, b); break;
-            case 0xE9: set(5, c); break;
-            case 0xEA: set(5, d); break;
-            case 0xEB: set(5, e); break;
-            case 0xEC: set(5, h); break;
-            case 0xED: set(5, l); break;
-            case 0xEE: set(5, getAddress(h, l)); break;
-            case 0xEF: set(5, a); break;
-
-            case 0xF0: set(6, b); break;
-            case 0xF1: set(6, c); break;
-            case 0xF2: set(6, d); break;
-            case 0xF3: set(6, e); break;
-            case 0xF4: set(6, h); break;
-            case 0xF5: set(6, l); break;
-            case 0xF6: set(6, getAddress(h, l)); break;
-            case 0xF7: set(6, a); break;
-            case 0xF8: set(7, b); break;
-            case 0xF9: set(7, c); break;
-            case 0xFA: set(7, d); break;
-            case 0xFB: set(7, e); break;
-            case 0xFC: set(7, h); break;
-            case 0xFD: set(7, l); break;
-            case 0xFE: set(7, getAddress(h, l)); break;
-            case 0xFF: set(7, a); break;
-
-            default: throw new InvalidInstructionException(String.format("CB %02X", instruction));
+            case 0x00: rotateLeftCarry(B); break;
+            case 0x01: rotateLeftCarry(C); break;
+            case 0x02: rotateLeftCarry(D); break;
+            case 0x03: rotateLeftCarry(E); break;
+            case 0x04: rotateLeftCarry(H); break;
+            case 0x05: rotateLeftCarry(L); break;
+            case 0x06: rotateLeftCarryMemory(); break;
+            case 0x07: rotateLeftCarry(A); break;
+            case 0x08: rotateRightCarry(B); break;
+            case 0x09: rotateRightCarry(C); break;
+            case 0x0A: rotateRightCarry(D); break;
+            case 0x0B: rotateRightCarry(E); break;
+            case 0x0C: rotateRightCarry(H); break;
+            case 0x0D: rotateRightCarry(L); break;
+            case 0x0E: rotateRightCarryMemory(); break;
+            case 0x0F: rotateRightCarry(A); break;
+
+            case 0x10: rotateLeft(B); break;
+            case 0x11: rotateLeft(C); break;
+            case 0x12: rotateLeft(D); break;
+            case 0x13: rotateLeft(E); break;
+            case 0x14: rotateLeft(H); break;
+            case 0x15: rotateLeft(L); break;
+            case 0x16: rotateLeftMemory(); break;
+            case 0x17: rotateLeft(A); break;
+            case 0x18: rotateRight(B); break;
+            case 0x19: rotateRight(C); break;
+            case 0x1A: rotateRight(D); break;
+            case 0x1B: rotateRight(E); break;
+            case 0x1C: rotateRight(H); break;
+            case 0x1D: rotateRight(L); break;
+            case 0x1E: rotateRightMemory(); break;
+            case 0x1F: rotateRight(A); break;
+
+            case 0x20: shiftLeftA(B); break;
+            case 0x21: shiftLeftA(C); break;
+            case 0x22: shiftLeftA(D); break;
+            case 0x23: shiftLeftA(E); break;
+            case 0x24: shiftLeftA(H); break;
+            case 0x25: shiftLeftA(L); break;
+            case 0x26: shiftLeftAMemory(); break;
+            case 0x27: shiftLeftA(A); break;
+            case 0x28: shiftRightA(B); break;
+            case 0x29: shiftRightA(C); break;
+            case 0x2A: shiftRightA(D); break;
+            case 0x2B: shiftRightA(E); break;
+            case 0x2C: shiftRightA(H); break;
+            case 0x2D: shiftRightA(L); break;
+            case 0x2E: shiftRightAMemory(); break;
+            case 0x2F: shiftRightA(A); break;
+
+            case 0x30: swap(B); break;
+            case 0x31: swap(C); break;
+            case 0x32: swap(D); break;
+            case 0x33: swap(E); break;
+            case 0x34: swap(H); break;
+            case 0x35: swap(L); break;
+            case 0x36: swapMemory(); break;
+            case 0x37: swap(A); break;
+            case 0x38: shiftRightL(B); break;
+            case 0x39: shiftRightL(C); break;
+            case 0x3A: shiftRightL(D); break;
+            case 0x3B: shiftRightL(E); break;
+            case 0x3C: shiftRightL(H); break;
+            case 0x3D: shiftRightL(L); break;
+            case 0x3E: shiftRightLMemory(); break;
+            case 0x3F: shiftRightL(A); break;
+
+            case 0x40: bit(0, B); break;
+            case 0x41: bit(0, C); break;
+            case 0x42: bit(0, D); break;
+            case 0x43: bit(0, E); break;
+            case 0x44: bit(0, H); break;
+            case 0x45: bit(0, L); break;
+            case 0x46: bitMemory(0); break;
+            case 0x47: bit(0, A); break;
+            case 0x48: bit(1, B); break;
+            case 0x49: bit(1, C); break;
+            case 0x4A: bit(1, D); break;
+            case 0x4B: bit(1, E); break;
+            case 0x4C: bit(1, H); break;
+            case 0x4D: bit(1, L); break;
+            case 0x4E: bitMemory(1); break;
+            case 0x4F: bit(1, A); break;
+
+            case 0x50: bit(2, B); break;
+            case 0x51: bit(2, C); break;
+            case 0x52: bit(2, D); break;
+            case 0x53: bit(2, E); break;
+            case 0x54: bit(2, H); break;
+            case 0x55: bit(2, L); break;
+            case 0x56: bitMemory(2); break;
+            case 0x57: bit(2, A); break;
+            case 0x58: bit(3, B); break;
+            case 0x59: bit(3, C); break;
+            case 0x5A: bit(3, D); break;
+            case 0x5B: bit(3, E); break;
+            case 0x5C: bit(3, H); break;
+            case 0x5D: bit(3, L); break;
+            case 0x5E: bitMemory(3); break;
+            case 0x5F: bit(3, A); break;
+
+            case 0x60: bit(4, B); break;
+            case 0x61: bit(4, C); break;
+            case 0x62: bit(4, D); break;
+            case 0x63: bit(4, E); break;
+            case 0x64: bit(4, H); break;
+            case 0x65: bit(4, L); break;
+            case 0x66: bitMemory(4); break;
+            case 0x67: bit(4, A); break;
+            case 0x68: bit(5, B); break;
+            case 0x69: bit(5, C); break;
+            case 0x6A: bit(5, D); break;
+            case 0x6B: bit(5, E); break;
+            case 0x6C: bit(5, H); break;
+            case 0x6D: bit(5, L); break;
+            case 0x6E: bitMemory(5); break;
+            case 0x6F: bit(5, A); break;
+
+            case 0x70: bit(6, B); break;
+            case 0x71: bit(6, C); break;
+            case 0x72: bit(6, D); break;
+            case 0x73: bit(6, E); break;
+            case 0x74: bit(6, H); break;
+            case 0x75: bit(6, L); break;
+            case 0x76: bitMemory(6); break;
+            case 0x77: bit(6, A); break;
+            case 0x78: bit(7, B); break;
+            case 0x79: bit(7, C); break;
+            case 0x7A: bit(7, D); break;
+            case 0x7B: bit(7, E); break;
+            case 0x7C: bit(7, H); break;
+            case 0x7D: bit(7, L); break;
+            case 0x7E: bitMemory(7); break;
+            case 0x7F: bit(7, A); break;
+
+            case 0x80: reset(0, B); break;
+            case 0x81: reset(0, C); break;
+            case 0x82: reset(0, D); break;
+            case 0x83: reset(0, E); break;
+            case 0x84: reset(0, H); break;
+            case 0x85: reset(0, L); break;
+            case 0x86: resetMemory(0); break;
+            case 0x87: reset(0, A); break;
+            case 0x88: reset(1, B); break;
+            case 0x89: reset(1, C); break;
+            case 0x8A: reset(1, D); break;
+            case 0x8B: reset(1, E); break;
+            case 0x8C: reset(1, H); break;
+            case 0x8D: reset(1, L); break;
+            case 0x8E: resetMemory(1); break;
+            case 0x8F: reset(1, A); break;
+
+            case 0x90: reset(2, B); break;
+            case 0x91: reset(2, C); break;
+            case 0x92: reset(2, D); break;
+            case 0x93: reset(2, E); break;
+            case 0x94: reset(2, H); break;
+            case 0x95: reset(2, L); break;
+            case 0x96: resetMemory(2); break;
+            case 0x97: reset(2, A); break;
+            case 0x98: reset(3, B); break;
+            case 0x99: reset(3, C); break;
+            case 0x9A: reset(3, D); break;
+            case 0x9B: reset(3, E); break;
+            case 0x9C: reset(3, H); break;
+            case 0x9D: reset(3, L); break;
+            case 0x9E: resetMemory(3); break;
+            case 0x9F: reset(3, A); break;
+
+            case 0xA0: reset(4, B); break;
+            case 0xA1: reset(4, C); break;
+            case 0xA2: reset(4, D); break;
+            case 0xA3: reset(4, E); break;
+            case 0xA4: reset(4, H); break;
+            case 0xA5: reset(4, L); break;
+            case 0xA6: resetMemory(4); break;
+            case 0xA7: reset(4, A); break;
+            case 0xA8: reset(5, B); break;
+            case 0xA9: reset(5, C); break;
+            case 0xAA: reset(5, D); break;
+            case 0xAB: reset(5, E); break;
+            case 0xAC: reset(5, H); break;
+            case 0xAD: reset(5, L); break;
+            case 0xAE: resetMemory(5); break;
+            case 0xAF: reset(5, A); break;
+
+            case 0xB0: reset(6, B); break;
+            case 0xB1: reset(6, C); break;
+            case 0xB2: reset(6, D); break;
+            case 0xB3: reset(6, E); break;
+            case 0xB4: reset(6, H); break;
+            case 0xB5: reset(6, L); break;
+            case 0xB6: resetMemory(6); break;
+            case 0xB7: reset(6, A); break;
+            case 0xB8: reset(7, B); break;
+            case 0xB9: reset(7, C); break;
+            case 0xBA: reset(7, D); break;
+            case 0xBB: reset(7, E); break;
+            case 0xBC: reset(7, H); break;
+            case 0xBD: reset(7, L); break;
+            case 0xBE: resetMemory(7); break;
+            case 0xBF: reset(7, A); break;
+
+            case 0xC0: set(0, B); break;
+            case 0xC1: set(0, C); break;
+            case 0xC2: set(0, D); break;
+            case 0xC3: set(0, E); break;
+            case 0xC4: set(0, H); break;
+            case 0xC5: set(0, L); break;
+            case 0xC6: setMemory(0); break;
+            case 0xC7: set(0, A); break;
+            case 0xC8: set(1, B); break;
+            case 0xC9: set(1, C); break;
+            case 0xCA: set(1, D); break;
+            case 0xCB: set(1, E); break;
+            case 0xCC: set(1, H); break;
+            case 0xCD: set(1, L); break;
+            case 0xCE: setMemory(1); break;
+            case 0xCF: set(1, A); break;
+
+            case 0xD0: set(2, B); break;
+            case 0xD1: set(2, C); break;
+            case 0xD2: set(2, D); break;
+            case 0xD3: set(2, E); break;
+            case 0xD4: set(2, H); break;
+            case 0xD5: set(2, L); break;
+            case 0xD6: setMemory(2); break;
+            case 0xD7: set(2, A); break;
+            case 0xD8: set(3, B); break;
+            case 0xD9: set(3, C); break;
+            case 0xDA: set(3, D); break;
+            case 0xDB: set(3, E); break;
+            case 0xDC: set(3, H); break;
+            case 0xDD: set(3, L); break;
+            case 0xDE: setMemory(3); break;
+            case 0xDF: set(3, A); break;
+
+            case 0xE0: set(4, B); break;
+            case 0xE1: set(4, C); break;
+            case 0xE2: set(4, D); break;
+            case 0xE3: set(4, E); break;
+            case 0xE4: set(4, H); break;
+            case 0xE5: set(4, L); break;
+            case 0xE6: setMemory(4); break;
+            case 0xE7: set(4, A); break;
+            case 0xE8: set(5, B); break;
+            case 0xE9: set(5, C); break;
+            case 0xEA: set(5, D); break;
+            case 0xEB: set(5, E); break;
+            case 0xEC: set(5, H); break;
+            case 0xED: set(5, L); break;
+            case 0xEE: setMemory(5); break;
+            case 0xEF: set(5, A); break;
+
+            case 0xF0: set(6, B); break;
+            case 0xF1: set(6, C); break;
+            case 0xF2: set(6, D); break;
+            case 0xF3: set(6, E); break;
+            case 0xF4: set(6, H); break;
+            case 0xF5: set(6, L); break;
+            case 0xF6: setMemory(6); break;
+            case 0xF7: set(6, A); break;
+            case 0xF8: set(7, B); break;
+            case 0xF9: set(7, C); break;
+            case 0xFA: set(7, D); break;
+            case 0xFB: set(7, E); break;
+            case 0xFC: set(7, H); break;
+            case 0xFD: set(7, L); break;
+            case 0xFE: setMemory(7); break;
+            case 0xFF: set(7, A); break;
+
+            default: fault(new InvalidInstructionException(String.format("CB %02X", instruction)));
         }
     }
 
-    private void rotateLeftCarry(char addr) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        int value = memory.read(addr);
-        int r = value / 128;
-        value <<= 1;
-        value |= r;
-
-        value %= 256;
-
-        memory.write(addr, (char) value);
-
-        f.set(r == 1, 4);
-        f.set(value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        time += 8;
+    private void rotateLeftCarry(int reg) {
+        regs.r[reg] = regs.rotateLeftCarry(regs.r[reg]);
     }
 
-    private void rotateLeftCarry(Register8 a) {
-        f.set(a.rotateLeft(true), 4);
-        f.set(a.value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        time += 8;
+    private void rotateLeftCarryMemory() {
+        int address = regs.getHL();
+        write(address, regs.rotateLeftCarry(read(address)));
     }
 
-    private void rotateRightCarry(char addr) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        int value = memory.read(addr);
-
-        int r = value % 2;
-        value <<= 1;
-        value |= r << 7;
-
-        memory.write(addr, (char) value);
-
-        f.set(r == 1, 4);
-        f.set(value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        time += 8;
-    }
-
-    private void rotateRightCarry(Register8 a) {
-        f.set(a.rotateRight(true), 4);
-        f.set(a.value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        time += 8;
-    }
-
-    private void rotateLeft(char addr) throws InvalidMemoryWriteLocationException, InvalidMemoryReadLocationException, IOException {
-        int value = memory.read(addr);
-
-        int r = value / 128;
-        value <<= 1;
-        if (f.getCarry())
-            value |= 1;
-
-        value %= 256;
-        memory.write(addr, (char) value);
-
-        f.set(value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        f.set(r == 1, 4);
-        time += 8;
+    private void rotateRightCarry(int reg) {
+        regs.r[reg] = regs.rotateRightCarry(regs.r[reg]);
     }
 
-    private void rotateLeft(Register8 a) {
-        f.set(a.rotateLeft(false), 4);
-        f.set(a.value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        time += 8;
+    private void rotateRightCarryMemory() {
+        int address = regs.getHL();
+        write(address, regs.rotateRightCarry(read(address)));
     }
 
-    private void rotateRight(char addr) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        int value = memory.read(addr);
-
-        int r = value % 2;
-        value <<= 1;
-        if (f.getCarry())
-            value |= 1 << 7;
-
-        memory.write(addr, (char) value);
-
-        f.set(r == 1, 4);
-        f.set(value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        time += 8;
+    private void rotateLeft(int reg) {
+        regs.r[reg] = regs.rotateLeft(regs.r[reg]);
     }
 
-    private void rotateRight(Register8 a) {
-        f.set(a.rotateRight(false), 4);
-        f.set(a.value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        time += 8;
+    private void rotateLeftMemory() {
+        int address = regs.getHL();
+        write(address, regs.rotateLeft(read(address)));
     }
 
-    private void shiftLeftA(char addr) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        int value = memory.read(addr);
-
-        boolean r = value / 128 == 1;
-        value <<= 1;
-        value &= (0xFF - 1);
-
-        memory.write(addr, (char) value);
-
-        f.set(value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        f.set(r, 4);
-
-        time += 8;
+    private void rotateRight(int reg) {
+        regs.r[reg] = regs.rotateRight(regs.r[reg]);
     }
 
-    private void shiftLeftA(Register8 reg) {
-        f.set(reg.value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        f.set(reg.shiftLeft(), 4);
-
-        time += 8;
+    private void rotateRightMemory() {
+        int address = regs.getHL();
+        write(address, regs.rotateRight(read(address)));
     }
 
-    private void swap(char addr) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        char value = memory.read(addr);
-        int temp = (value & 0x0F) << 4 ;
-        temp += (value & 0xF0) >> 4;
-        value = (char) temp;
-        memory.write(addr, value);
-
-        f.set(value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        f.set(false, 4);
-
-        time += 16;
+    private void shiftLeftA(int reg) {
+        regs.r[reg] = regs.shiftLeftA(regs.r[reg]);
     }
 
-    private void swap(Register8 reg) {
-        f.set(reg.swap(), 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        f.set(false, 4);
-
-        time += 8;
+    private void shiftLeftAMemory() {
+        int address = regs.getHL();
+        write(address, regs.shiftLeftA(read(address)));
     }
 
-    private void shiftRightL(char addr) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        f.set(memory.read(addr) / 2 > 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-
-        char value = memory.read(addr);
-        boolean r = value % 2 == 1;
-        int b = value / 128;
-        value >>= 1;
-        value |= b << 7;
-
-        memory.write(addr, value);
-
-        f.set(r, 4);
-
-        time += 16;
+    private void shiftRightA(int reg) {
+        regs.r[reg] = regs.shiftRightA(regs.r[reg]);
     }
 
-    private void shiftRightA(char address) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        f.set(memory.read(address) / 2 > 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-
-        char value = memory.read(address);
-        boolean r = value % 2 == 1;
-        value >>= 1;
-        value &= (0xFF - (1 << 7));
-
-        memory.write(address, value);
-
-        f.set(r, 4);
-
-        time += 16;
+    private void shiftRightAMemory() {
+        int address = regs.getHL();
+        write(address, regs.shiftRightA(read(address)));
     }
 
-    private void shiftRightL(Register8 reg) {
-        f.set(reg.value / 2 == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        f.set(reg.shiftRight(true), 4);
-
-        time += 8;
+    private void swap(int reg) {
+        regs.r[reg] = regs.swap(regs.r[reg]);
     }
 
-    private void shiftRightA(Register8 reg) {
-        f.set(reg.value / 2 == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        f.set(reg.shiftRight(false), 4);
-
-        time += 8;
+    private void swapMemory() {
+        int address = regs.getHL();
+        write(address, regs.swap(read(address)));
     }
 
-    private void reset(int i, char addr) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        memory.write(addr, (char) (memory.read(addr) & (0xFF - (1 << i))));
-
-        time += 16;
+    private void shiftRightL(int reg) {
+        regs.r[reg] = regs.shiftRightL(regs.r[reg]);
     }
 
-    private void reset(int i, Register8 b) {
-        b.reset(i);
-
-        time += 8;
+    private void shiftRightLMemory() {
+        int address = regs.getHL();
+        write(address, regs.shiftRightL(read(address)));
     }
 
-    private void set(int i, char addr) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        memory.write(addr, (char) (memory.read(addr) | (1 << i)));
-
-        time += 16;
+    private void reset(int i, int reg) {
+        regs.r[reg] &= ~(1 << i);
     }
 
-    private void set(int i, Register8 b) {
-        b.set(i);
-
-        time += 8;
+    private void resetMemory(int i) {
+        int address = regs.getHL();
+        write(address, read(address) & ~(1 << i));
     }
 
-    private void bit(int i, char value) {
-        bitOp(i, value);
-        time += 16;
+    private void set(int i, int reg) {
+        regs.r[reg] |= 1 << i;
     }
 
-    private void bit(int i, Register8 b) {
-        bitOp(i, b.value);
-        time += 8;
+    private void setMemory(int i) {
+        int address = regs.getHL();
+        write(address, read(address) | (1 << i));
     }
 
-    private void bitOp(int i, char reg) {
-        f.set((reg & (1 << i)) > 0, 7);
-        f.set(false, 6);
-        f.set(true, 5);
+    private void bit(int i, int reg) {
+        bitOp(i, regs.r[reg]);
     }
 
-    private char getAddress(Register8 h, Register8 l) {
-        return getAddress(h.value, l.value);
+    private void bitMemory(int i) {
+        bitOp(i, read(regs.getHL()));
     }
 
-    private void loadRegisters16(Register16 sp, Register8 h, Register8 l) {
-        sp.value = getAddress(h.value, l.value);
-
-        time += 8;
+    private void bitOp(int i, int value) {
+        regs.setFlags(zero(value & (1 << i)) | HALF_CARRY | regs.carry() << 4);
     }
 
-    private void jumpFast(char address) {
-        pc.value = address;
-
-        time += 4;
+    private void jumpFast(int address) {
+        regs.pc = address;
     }
 
-    private void loadDecrement(Register8 a, Register8 h, Register8 l) throws InvalidMemoryReadLocationException, IOException {
-        a.value = memory.read(getAddress(h.value, l.value));
-        l.decrement();
-        if (l.value == 0xFF)
-            h.decrement();
-
-        time += 8;
+    private void loadDecrement() {
+        int address = regs.getHL();
+        regs.r[A] = read(address);
+        regs.setHL(address - 1);
     }
 
-    private void loadDecrement(Register8 h, Register8 l, char value) throws InvalidMemoryWriteLocationException {
-        memory.write(getAddress(h.value, l.value), value);
-        l.decrement();
-        if (l.value == 0xFF)
-            h.decrement();
-
-        time += 8;
+    private void storeDecrement() {
+        int address = regs.getHL();
+        write(address, regs.r[A]);
+        regs.setHL(address - 1);
     }
 
-    private void loadIncrement(Register8 a, Register8 h, Register8 l) throws InvalidMemoryReadLocationException, IOException {
-        a.value = memory.read(getAddress(h.value, l.value));
-        l.increment();
-        if (l.value == 0) {
-            l.value = 0;
-            h.increment();
-        }
-
-        time += 8;
+    private void loadIncrement() {
+        int address = regs.getHL();
+        regs.r[A] = read(address);
+        regs.setHL(address + 1);
     }
 
-    private void loadIncrement(Register8 h, Register8 l, char a) throws InvalidMemoryWriteLocationException {
-        memory.write(getAddress(h.value, l.value), a);
-        l.increment();
-        if (l.value == 0) {
-            l.value = 0;
-            h.increment();
-        }
-
-        time += 8;
+    private void storeIncrement() {
+        int address = regs.getHL();
+        write(address, regs.r[A]);
+        regs.setHL(address + 1);
     }
 
-    private void loadHigh(Register8 a, int byteFromMemory) throws InvalidMemoryReadLocationException, IOException {
-        a.value = memory.read((char) (0xFF00 + byteFromMemory));
-
-        time += 12;
+    private void loadHigh(int offset) {
+        regs.r[A] = read(0xFF00 + offset);
     }
 
-    private void loadHigh(int byteFromMemory, Register8 a) throws InvalidMemoryWriteLocationException {
-        memory.write((char) (0xFF00 + byteFromMemory), a.value);
-
-        time += 12;
+    private void storeHigh(int offset) {
+        write(0xFF00 + offset, regs.r[A]);
     }
 
-    private void add16(Register16 sp, int byteFromMemory) {
-        f.set(false, 7);
-        f.set(false, 6);
-        f.set(((sp.value & 0xFFF) + (byteFromMemory & 0xFFF)) > 0xFFF, 5);
-        f.set(sp.value + byteFromMemory > 0xFFFF, 4);
+    private int offsetStackPointer(int offset) {
+        int low = (regs.sp & 0xFF) + (offset & 0xFF);
+        regs.setFlags((((regs.sp & 0x0F) + (offset & 0x0F)) > 0x0F ? HALF_CARRY : 0) | (low > 0xFF ? CARRY : 0));
 
-        sp.value += byteFromMemory;
-
-        time += 16;
+        return (regs.sp + offset) & 0xFFFF;
     }
 
     private void enableInterrupts() {
-        time += 4;
-
         interruptsEnabled = true;
+        scheduler.requestCheck();
     }
 
     private void disableInterrupts() {
         interruptsEnabled = false;
+    }
 
-        time += 4;
+    private void call(int address) {
+        push(regs.pc);
+        regs.pc = address;
     }
 
-    private void call(boolean b, char address) throws InvalidMemoryWriteLocationException {
+    private void call(boolean b, int address) {
         if (b) {
-            pc.increment();
-            pushByteToStack((char) ((pc.value & 0xFF00) >> 8));
-            pushByteToStack((char) (pc.value & 0xFF));
-            pc.value = address;
-            time += 24;
-        } else {
+            call(address);
             time += 12;
         }
     }
 
-    private void returnInterrupt() throws InvalidMemoryReadLocationException, IOException {
-        char low = popByteFromStack();
-        pc.value = getAddress(popByteFromStack(), low);
+    private void returnInterrupt() {
+        regs.pc = pop();
 
         interruptsEnabled = true;
-
-        time += 16;
+        scheduler.requestCheck();
     }
 
-    private void absoluteReturn() throws InvalidMemoryReadLocationException, IOException {
-        char low = popByteFromStack();
-        pc.value = getAddress(popByteFromStack(), low);
-
-        time += 16;
+    private void absoluteReturn() {
+        regs.pc = pop();
     }
 
-    private void restart(int i) throws InvalidMemoryWriteLocationException {
-        pushByteToStack((char) ((pc.value & 0xFF00) >> 8));
-        pushByteToStack((char) (pc.value & 0xFF));
-
-        pc.value = (char) i;
+    private void restart(int i) {
+        push(regs.pc);
 
-        time += 16;
+        regs.pc = i;
     }
 
-    private void push(char word) throws InvalidMemoryWriteLocationException {
-        pushByteToStack((char) ((word & 0xFF00) >> 8));
-        pushByteToStack((char) (word & 0xFF));
-
-        time += 16;
+    private void push(int word) {
+        pushByteToStack(word >> 8);
+        pushByteToStack(word & 0xFF);
     }
 
-    private void pop(Register8 top, Register8 bottom) throws InvalidMemoryReadLocationException, IOException {
-        bottom.value = popByteFromStack();
-        top.value = popByteFromStack();
-
-        time += 12;
+    private int pop() {
+        int low = popByteFromStack();
+        return getAddress(low, popByteFromStack());
     }
 
-    private void ret(boolean b) throws InvalidMemoryReadLocationException, IOException {
+    private void ret(boolean b) {
         if (b) {
-            char low = popByteFromStack();
-            pc.value = getAddress(popByteFromStack(), low);
-
-            time += 20;
-        } else {
-            time += 8;
-        }
-    }
+            regs.pc = pop();
 
-    private void jumpAbsolute(boolean b, char addressFromMemory) {
-        if (b){
-            pc.value = addressFromMemory;
-            time += 16;
-        } else {
             time += 12;
         }
     }
 
-    private void cp8(char value) {
-        cpOp8(value);
-        time += 8;
-    }
-
-    private void cp8(Register8 b) {
-        cp8(b.value);
-    }
-
-    private void or8(char value) {
-        orOp8(value);
-        time += 8;
-    }
-
-    private void or8(Register8 d) {
-        or8(d.value);
-    }
-
-    private void xor8(char value) {
-        xorOp8(value);
-        time += 8;
-    }
-
-    private void xor8(Register8 b) {
-        xor8(b.value);
-    }
-
-    private void and8(char value) {
-        andOp8(value);
-        time += 8;
-    }
-
-    private void and8(Register8 b) {
-        and8(b.value);
-    }
-
-    private void sbc8(char value) {
-        sbcOp8(value);
-        time += 8;
-    }
-
-    private void sbc8(Register8 b) {
-        sbc8(b.value);
-    }
-
-    private void sub8(char value) {
-        subOp8(value);
-        time += 8;
-    }
-
-    private void sub8(Register8 b) {
-        sub8(b.value);
-    }
-
-    private void adc8(Register8 b) {
-        adc8(b.value);
-    }
-
-    private void adc8(char value) {
-        adcOp8(value);
-        time += 8;
+    private void jumpAbsolute(int address) {
+        regs.pc = address;
     }
 
-    private void add8(char value) {
-        addOp8(value);
-        time += 8;
-    }
-
-    private void add8(Register8 b){
-        add8(b.value);
+    private void jumpAbsolute(boolean b, int address) {
+        if (b){
+            int branch = regs.pc - 3;
+            regs.pc = address;
+            time += 4;
+            if (address < branch && branch - address <= IDLE_LOOP_LENGTH)
+                skipIdleLoop(branch, 16);
+        }
     }
 
-    private void cpOp8(char c) {
-        f.set(a.value == c, 7);
-        f.set(true, 6);
-        f.set(((a.value & 0xF) - (c & 0xF)) < 0, 5);
-        f.set(a.value < c, 4);
+    private void cp8(int value) {
+        regs.compare(value);
     }
 
-    private void orOp8(char d) {
-        a.value |= d;
+    private void or8(int value) {
+        regs.r[A] |= value;
 
-        f.set(a.value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        f.set(false, 4);
+        regs.setFlags(zero(regs.r[A]));
     }
 
-    private void xorOp8(char d) {
-        a.value ^= d;
+    private void xor8(int value) {
+        regs.r[A] ^= value;
 
-        f.set(a.value == 0, 7);
-        f.set(false, 6);
-        f.set(false, 5);
-        f.set(false, 4);
+        regs.setFlags(zero(regs.r[A]));
     }
 
-    private void andOp8(char c) {
-        a.value &= c;
+    private void and8(int value) {
+        regs.r[A] &= value;
 
-        f.set(a.value == 0, 7);
-        f.set(false, 6);
-        f.set(true, 5);
-        f.set(false, 4);
+        regs.setFlags(zero(regs.r[A]) | HALF_CARRY);
     }
 
-    private void sbcOp8(char b) {
-        //check
-
-        int r = a.value - (b + (f.getCarry()?1:0));
-        f.set(r < 0, 4);
-
-        f.set((a.value & 0x0F) - ((b + (f.getCarry()?1:0)) & 0x0F) < 0, 5);
-
-        f.set(true, 6);
-
-        a.value = (char) ((r + 256) % 256);
-        f.set(a.value == 0, 7);
+    private void sbc8(int value) {
+        regs.subtract(value, regs.carry());
     }
 
-    private void subOp8(char b) {
-        //check
-
-        int r = a.value - b;
-        f.set(r < 0, 4);
-
-        f.set((a.value & 0x0F) - (b & 0x0F) < 0, 5);
-
-        f.set(true, 6);
-
-        a.value = (char) ((r + 256) % 256);
-        f.set(a.value == 0, 7);
+    private void sub8(int value) {
+        regs.subtract(value, 0);
     }
 
-    private void adcOp8(char b) {
-        //check
-
-        char r = (char) (a.value + b + (f.getCarry()?1:0));
-        f.set(r > 255, 4);
-
-        f.set((a.value & 0x0F) + (b & 0x0F) > 0x0F, 5);
-
-        f.set(false, 6);
-
-        a.value = (char) (r % 256);
-        f.set(a.value == 0, 7);
+    private void adc8(int value) {
+        regs.add(value, regs.carry());
     }
 
-    private void addOp8(char b) {
-        //check
-
-        char r = (char) (a.value + b);
-        f.set(r > 255, 4);
-
-        f.set((a.value & 0x0F) + (b & 0x0F) > 0x0F, 5);
-
-        f.set(false, 6);
-
-        a.value = (char) (r % 256);
-        f.set(a.value == 0, 7);
+    private void add8(int value) {
+        regs.add(value, 0);
     }
 
     private void halt() {
-        //TODO power down components.CPU until an interrupt occurs
+        if (interrupts.pending() == 0)
+            halted = true;
+        else if (!interruptsEnabled)
+            haltBug = true;
 
-        time += 4;
+        scheduler.requestCheck();
     }
 
-    private void loadRegister8(Register8 dest, Register8 orig) {
-        dest.value = orig.value;
-
-        time += 4;
+    private void loadRegister8(int dest, int orig) {
+        regs.r[dest] = regs.r[orig];
     }
 
     private void complementAccumulator() {
-        //make sure this is correct
-
-        a.value = (char) -a.value;
-        f.set(true, 5);
-        f.set(true, 6);
-        time += 4;
+        regs.r[A] ^= 0xFF;
+        regs.setFlags(regs.flags() | SUBTRACT | HALF_CARRY);
     }
 
     private void decimalAdjustAccumulator() {
-        //check
-
-        if ((a.value & 0xF) > 9) {
-            a.value += 0x6;
-        }
-        if (((a.value & 0xF0) >> 4) > 9) {
-            if (a.value + 0x60 > 255)
-                f.set(true, 5);
-            else
-                f.set(false, 5);
-
-            a.value += 0x60;
-        }
-
-        f.set(a.value == 0, 7);
-
-        f.set(false, 4);
-
-        time += 4;
+        regs.decimalAdjust();
     }
 
     private void complementCarryFlag() {
-        f.set(!f.getCarry(), 4);
-        f.set(false, 5);
-        f.set(false, 6);
-        time += 4;
+        int f = regs.flags();
+        regs.setFlags((f & ZERO) | (~f & CARRY));
     }
 
-    private void decrement(Register16 sp) {
-        sp.decrement();
-        time += 8;
+    private void decrementStackPointer() {
+        regs.sp = (regs.sp - 1) & 0xFFFF;
     }
 
-    private void add16(Register8 h, Register8 l, Register16 sp) {
-        char high = (char) ((sp.value >> 8) & 0xFF);
-        char low = (char) (sp.value & 0xFF);
-        add16(h, l, high, low);
+    private void setCarryFlag() {
+        regs.setFlags((regs.flags() & ZERO) | CARRY);
     }
 
-    private void setCarryFlag() {
-        f.set(true, 4);
-        f.set(false, 5);
-        f.set(false, 6);
-        time += 4;
+    private void loadValueToMemory8(int address, int value) {
+        write(address, value);
     }
 
-    private void loadRegister8(char address, char byteFromMemory) throws InvalidMemoryWriteLocationException {
-        memory.write(address, byteFromMemory);
-        time += 12;
+    private void decrementMemory(int address) {
+        write(address, regs.decrement(read(address)));
     }
 
-    private void decrement(char address) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        memory.decrement(address);
-        char value = memory.read(address);
-        f.set((value & 0x0F) == 0, 5);
-        f.set(true, 6);
-        f.set(value == 0, 7);
-        time += 12;
+    private void incrementMemory(int address) {
+        write(address, regs.increment(read(address)));
     }
 
-    private void increment(char address) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
-        memory.increment(address);
-        char value = memory.read(address);
-        f.set((value & 0x0F) == 0, 5);
-        f.set(false, 6);
-        f.set(value == 0, 7);
-        time += 12;
+    private void incrementStackPointer() {
+        regs.sp = (regs.sp + 1) & 0xFFFF;
     }
 
-    private void increment(Register16 sp) {
-        sp.increment();
-        time += 8;
+    private void loadStackPointer(int word) {
+        regs.sp = word;
     }
 
-    private void loadRegisters16(Register16 sp, char wordFromMemory) {
-        sp.value = wordFromMemory;
-        time += 12;
+    private void storeStackPointer(int address) {
+        write(address, regs.sp & 0xFF);
+        write((address + 1) & 0xFFFF, regs.sp >> 8);
     }
 
-    private void jumpRelative(byte byteFromMemory) {
-        jumpRelative(true, byteFromMemory);
+    private void jumpRelative(int offset) {
+        regs.pc = (regs.pc + offset) & 0xFFFF;
     }
 
-    private void jumpRelative(boolean b, byte byteFromMemory) {
+    private void jumpRelative(boolean b, int offset) {
         if (b) {
-            pc.value += byteFromMemory;
-            time += 12;
-        } else {
-            time += 8;
+            jumpRelative(offset);
+            time += 4;
+            if (offset < -2 && offset >= -2 - IDLE_LOOP_LENGTH)
+                skipIdleLoop((regs.pc - offset - 2) & 0xFFFF, 12);
         }
-
     }
 
     private void rotateRightAccumulator() {
-        f.set(a.rotateRight(false), 4);
-        f.set(false, 5);
-        f.set(false, 6);
-        f.set(false, 7);
-
-        time += 4;
+        regs.r[A] = regs.rotateRight(regs.r[A]);
+        regs.setFlags(regs.carry() << 4);
     }
 
     private void rotateLeftAccumulator() {
-        f.set(a.rotateLeft(false), 4);
-        f.set(false, 5);
-        f.set(false, 6);
-        f.set(false, 7);
-
-        time += 4;
+        regs.r[A] = regs.rotateLeft(regs.r[A]);
+        regs.setFlags(regs.carry() << 4);
     }
 
+    // the clock keeps running while stopped, only the CPU waits for a joypad press
     private void stop() {
-        //TODO what does this do?
-        time += 4;
+        regs.pc = (regs.pc + 1) & 0xFFFF; //STOP is followed by a padding byte
+        halted = true;
+        stopped = true;
+        scheduler.requestCheck();
     }
 
     private void rotateRightCarryAccumulator() {
-        f.set(a.rotateRight(true), 4);
-        f.set(false, 5);
-        f.set(false, 6);
-        f.set(false, 7);
-
-        time += 4;
-    }
-
-    private void decrement(Register8 high, Register8 low) {
-        low.decrement();
-        if (low.value == 0xFF)
-            high.decrement();
-
-        time += 8;
-    }
-
-    private void add16(Register8 h, Register8 l, Register8 b, Register8 c) {
-        add16(h, l, b.value, c.value);
+        regs.r[A] = regs.rotateRightCarry(regs.r[A]);
+        regs.setFlags(regs.carry() << 4);
     }
 
-    private void add16(Register8 h, Register8 l, char b, char c){
-        char low = (char) (l.value + c);
-        char high = (char) (low>255?1:0);
-        low %= 256;
-
-        f.set((high + (b & 0xF) + (h.value & 0xF)) > 0xF, 5);
-
-        high += b;
-        high += h.value;
-        high %= 256;
-        h.value = (char) (high % 256);
-        l.value = (char) (low % 256);
-
-
-        f.set(false, 6);
-        f.set(high > 255, 4);
-
-        //check flags
-
-        time += 8;
+    private void decrementPair(int high) {
+        regs.setPair(high, regs.getPair(high) - 1);
     }
 
-    private void loadMemory16(char addressFromMemory, char value) throws InvalidMemoryWriteLocationException {
-        memory.write(addressFromMemory, (char) ((value >> 8) & 0xFF));
-        memory.write((char) (addressFromMemory + 1), (char) (value & 0xFF));
+    private void add16(int value) {
+        int hl = regs.getHL();
+        int r = hl + value;
 
-        time += 20;
+        regs.setHL(r);
+        regs.setFlags((regs.flags() & ZERO) | ((hl & 0x0FFF) + (value & 0x0FFF) > 0x0FFF ? HALF_CARRY : 0) | (r > 0xFFFF ? CARRY : 0));
     }
 
     private void rotateLeftCarryAccumulator() {
-        f.set(a.rotateLeft(true), 4);
-        f.set(false, 5);
-        f.set(false, 6);
-        f.set(false, 7);
-
-        time += 4;
+        regs.r[A] = regs.rotateLeftCarry(regs.r[A]);
+        regs.setFlags(regs.carry() << 4);
     }
 
-    private void loadRegister8(Register8 b, char memoryLocation) throws InvalidMemoryReadLocationException, IOException {
-        loadValueToRegister8(b, memory.read(memoryLocation));
+    private void loadMemoryToRegister8(int reg, int address) {
+        regs.r[reg] = read(address);
     }
 
-    private void loadValueToRegister8(Register8 b, char byteFromMemory) {
-        b.value = byteFromMemory;
-
-        time += 8;
+    private void loadValueToRegister8(int reg, int value) {
+        regs.r[reg] = value;
     }
 
-    private void decrement(Register8 reg) {
-        reg.decrement();
-
-        f.set(reg.value == 0, 7);
-        f.set(true, 6);
-        f.set((reg.value & 0x0F) == 0x0F, 5);
-
-        time += 4;
+    private void decrement(int reg) {
+        regs.r[reg] = regs.decrement(regs.r[reg]);
     }
 
-    private void increment(Register8 b, Register8 c) {
-        c.increment();
-        if (c.value == 0)
-            b.increment();
-
-        time += 8;
+    private void incrementPair(int high) {
+        regs.setPair(high, regs.getPair(high) + 1);
     }
 
-    private void increment(Register8 reg) {
-        reg.increment();
-
-        f.set(reg.value == 0, 7);
-        f.set(false, 6);
-        f.set((reg.value & 0x0F) == 0, 5);
-
-        time += 4;
+    private void increment(int reg) {
+        regs.r[reg] = regs.increment(regs.r[reg]);
     }
 
-    private void loadMemory8(char address, Register8 a) throws InvalidMemoryWriteLocationException {
-        memory.write(address, a.value);
-        time += 8;
+    private void loadMemory8(int address, int reg) {
+        write(address, regs.r[reg]);
     }
 
-    private void loadRegisters16(Register8 b, Register8 c, char wordFromMemory) {
-        b.value = (char) (((wordFromMemory >> 8) & 0xFF) % 256);
-        c.value = (char) (((wordFromMemory) & 0xFF) % 256);
-        time += 12;
+    private void loadRegisters16(int high, int word) {
+        regs.setPair(high, word);
     }
 
     private void nop() {
-        time += 4;
     }
 }
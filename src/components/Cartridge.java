@@ -1,41 +1,324 @@
 package components;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Created by Goncalo on 30/09/2017.
+ *
+ * Rom, external ram and the memory bank controller picked from the cartridge type at 0x0147.
+ * Writes to the controller registers recompute the banks once, Memory then maps their offsets into its pages.
+ * Ram accesses go through views switched by those writes, so an access never checks the enable or bank.
+ * Battery backed ram can live in a save file next to the rom, mapped so writes land in the page cache
+ * and reach the disk on {@link #flush(long)}, which also stores the MBC3 clock after the ram.
  */
 public class Cartridge {
-    RandomAccessFile cart;
-    int bank = 1;
+    static final int BANK_SIZE = 0x4000;
+    static final int RAM_BANK_SIZE = 0x2000;
+    private static final int MAX_SIZE = 0x800000; //8MB, 512 banks
 
-    public Cartridge(String cartFileName) throws FileNotFoundException {
-         cart = new RandomAccessFile(cartFileName, "r");
+    //external ram in bytes, indexed by the ram size at 0x0149
+    private static final int[] RAM_SIZES = {0, 0x800, 0x2000, 0x8000, 0x20000, 0x10000};
+
+    enum Controller {
+        NONE, MBC1, MBC3, MBC5
+    }
+
+    char[] rom;
+    final Controller controller;
+    private final RealTimeClock clock; //only MBC3 carts with a timer
+    private final int romBanks;
+
+    //controller registers as written
+    private int romSelect = 1;
+    private int ramSelect; //MBC1 uses it for the upper rom bits too, MBC3 also selects the clock registers
+    private int mode; //MBC1 banking mode
+    private int latch = 0xFF; //MBC3 latches the clock on a 0 then 1
+    private boolean ramEnabled;
+
+    //derived from the registers
+    int bank = 1; //mapped at 0x4000 - 0x7FFF
+    int lowBank; //mapped at 0x0000 - 0x3FFF, only MBC1 in mode 1 moves it
+    private int ramBank;
+    private boolean clockSelected; //MBC3 ram banks 0x08 and up
+
+    private interface RamWrite {
+        void write(int address, char value, long now);
+    }
+
+    private final MappedByteBuffer file; //save file of persistent battery backed carts, ram then the clock
+    private final ByteBuffer ram; //the start of file when there is one
+    private final ByteBuffer[] ramBanks; //smaller chips are a single bank that repeats within 0xA000 - 0xBFFF
+    private final ByteBuffer openBus = ByteBuffer.allocate(1).put(0, (byte) 0xFF);
+    private final ByteBuffer sink = ByteBuffer.allocate(1);
+    private final ByteBuffer clockPort = ByteBuffer.allocate(1); //latched value of the selected clock register
+
+    //where ram accesses go, a bank of ram when enabled or one of the single byte buffers above
+    private ByteBuffer ramReads = openBus;
+    private ByteBuffer ramWrites = sink;
+    private int ramMask;
+    private final RamWrite bankWrite = (address, value, now) -> ramWrites.put(address & ramMask, (byte) value);
+    private final RamWrite clockWrite = (address, value, now) -> writeClock(value, now);
+    private RamWrite ramWrite = bankWrite; //clockWrite while the clock is selected and enabled
+
+    public Cartridge(String cartFileName) throws IOException {
+        this(cartFileName, false);
+    }
+
+    /**
+     * @param persistent keep the ram of battery backed carts in a .sav file next to the rom
+     */
+    public Cartridge(String cartFileName, boolean persistent) throws IOException {
+        try (RandomAccessFile cart = new RandomAccessFile(cartFileName, "r")) {
+            long length = cart.length();
+            if (length < 2 * BANK_SIZE || length > MAX_SIZE || length % BANK_SIZE != 0)
+                throw new IOException(String.format("Invalid cartridge size %d", length));
+
+            byte[] data = new byte[(int) length];
+            cart.readFully(data);
+
+            int declared = (2 * BANK_SIZE) << (data[0x0148] & 0xFF);
+            if (declared > length)
+                throw new IOException(String.format("Cartridge declares %d bytes but has %d", declared, length));
+
+            int type = data[0x0147] & 0xFF;
+            controller = controller(type);
+            clock = type == 0x0F || type == 0x10 ? new RealTimeClock() : null;
+            ramEnabled = controller == Controller.NONE;
+
+            int ramSize = data[0x0149] & 0xFF;
+            if (ramSize >= RAM_SIZES.length)
+                throw new IOException(String.format("Invalid cartridge ram size %02X", ramSize));
+            int size = RAM_SIZES[ramSize];
+            int saved = size + (clock != null ? RealTimeClock.FILE_SIZE : 0);
+            file = persistent && battery(type) && saved > 0 ? map(saveFile(cartFileName), saved) : null;
+            ram = file != null ? file.slice(0, size) : ByteBuffer.allocate(size);
+            if (file != null && clock != null)
+                clock.load(clockFile());
+            ramBanks = new ByteBuffer[(size + RAM_BANK_SIZE - 1) / RAM_BANK_SIZE];
+            for (int i = 0; i < ramBanks.length; i++)
+                ramBanks[i] = ram.slice(i * RAM_BANK_SIZE, Math.min(size, RAM_BANK_SIZE));
+
+            rom = new char[data.length];
+            for (int i = 0; i < data.length; i++)
+                rom[i] = (char) (data[i] & 0xFF);
+            romBanks = rom.length / BANK_SIZE;
+        }
+
+        mapRam();
     }
 
-    public char read(char address) throws IOException {
-        if (address < 0x4000)
-            cart.seek(address);
-        else
-            cart.seek(address - 0x4000 + (bank * 0x4000));
+    private static boolean battery(int type) {
+        switch (type) {
+            case 0x03: case 0x09: case 0x0F: case 0x10: case 0x13: case 0x1B: case 0x1E:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // game.gb keeps its ram in game.sav
+    private static Path saveFile(String cartFileName) {
+        int dot = cartFileName.lastIndexOf('.');
+        int separator = Math.max(cartFileName.lastIndexOf('/'), cartFileName.lastIndexOf('\\'));
+        return Paths.get((dot > separator ? cartFileName.substring(0, dot) : cartFileName) + ".sav");
+    }
 
-        byte b = cart.readByte();
+    // a new or shorter file is extended with zeroes, the mapping outlives the channel
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private ByteBuffer clockFile() {
+        return file.slice(ram.capacity(), RealTimeClock.FILE_SIZE);
+    }
 
-        return (char) ((b + 256) % 256);
+    /**
+     * Writes battery backed ram and the clock through to the save file, if there is one.
+     * @param now master clock cycle the clock is stored as of
+     */
+    void flush(long now) {
+        if (file == null)
+            return;
+        if (clock != null)
+            clock.store(clockFile(), now);
+        file.force();
     }
 
-    public char readRam(int address) {
-        return 1; //TODO
+    private static Controller controller(int type) throws IOException {
+        switch (type) {
+            case 0x00: case 0x08: case 0x09:
+                return Controller.NONE;
+            case 0x01: case 0x02: case 0x03:
+                return Controller.MBC1;
+            case 0x0F: case 0x10: case 0x11: case 0x12: case 0x13:
+                return Controller.MBC3;
+            case 0x19: case 0x1A: case 0x1B: case 0x1C: case 0x1D: case 0x1E:
+                return Controller.MBC5;
+            default:
+                throw new IOException(String.format("Unsupported cartridge type %02X", type));
+        }
     }
 
-    public void writeRam(int i, char value) {
-        //TODO
+    // offset into rom of the bank mapped at 0x4000 - 0x7FFF
+    int getBankOffset() {
+        return bank * BANK_SIZE;
+    }
+
+    // offset into rom of the bank mapped at 0x0000 - 0x3FFF
+    int getLowBankOffset() {
+        return lowBank * BANK_SIZE;
+    }
+
+    // global checksum from the header, identifies the game a save state belongs to
+    int getChecksum() {
+        return (rom[0x014E] << 8) | rom[0x014F];
+    }
+
+    int getRamSize() {
+        return ram.capacity();
+    }
+
+    //the caller maps the restored banks
+    void save(ByteBuffer state) {
+        state.putInt(romSelect).put((byte) ramSelect).put((byte) mode).put((byte) latch);
+        state.put((byte) (ramEnabled ? 1 : 0));
+        state.put(state.position(), ram, 0, ram.capacity());
+        state.position(state.position() + ram.capacity());
+        if (clock != null)
+            clock.save(state);
+    }
+
+    void restore(ByteBuffer state) {
+        romSelect = state.getInt();
+        ramSelect = state.get() & 0xFF;
+        mode = state.get() & 0xFF;
+        latch = state.get() & 0xFF;
+        ramEnabled = state.get() != 0;
+        ram.put(0, state, state.position(), ram.capacity());
+        state.position(state.position() + ram.capacity());
+        if (clock != null)
+            clock.restore(state);
+        updateBanks();
+    }
+
+    char readRam(int address) {
+        return (char) (ramReads.get(address & ramMask) & 0xFF);
+    }
+
+    void writeRam(int address, char value, long now) {
+        ramWrite.write(address, value, now);
+    }
+
+    private void writeClock(char value, long now) {
+        if (clock != null && ramSelect <= 0x0C) {
+            clock.write(ramSelect, value, now);
+            clockPort.put(0, (byte) clock.read(ramSelect));
+        }
+    }
+
+    // points the ram views at whatever the registers select, ram sizes are powers of two
+    private void mapRam() {
+        ramWrite = ramEnabled && clockSelected ? clockWrite : bankWrite;
+        if (!ramEnabled) {
+            ramReads = openBus;
+            ramWrites = sink;
+            ramMask = 0;
+        } else if (clockSelected) {
+            clockPort.put(0, (byte) (clock != null && ramSelect <= 0x0C ? clock.read(ramSelect) : 0xFF));
+            ramReads = clockPort;
+            ramWrites = sink;
+            ramMask = 0;
+        } else if (ramBanks.length == 0) {
+            ramReads = openBus;
+            ramWrites = sink;
+            ramMask = 0;
+        } else {
+            ramReads = ramWrites = ramBanks[ramBank % ramBanks.length];
+            ramMask = ramReads.capacity() - 1;
+        }
+    }
+
+    /**
+     * Write to a controller register in 0x0000 - 0x7FFF.
+     * @return whether the rom banks mapped changed
+     */
+    boolean writeRegister(int address, char value, long now) {
+        if (controller == Controller.NONE)
+            return false;
+
+        if (address < 0x2000) {
+            ramEnabled = (value & 0x0F) == 0x0A;
+            mapRam();
+            return false;
+        }
+
+        int oldBank = bank;
+        int oldLowBank = lowBank;
+        switch (controller) {
+            case MBC1:
+                if (address < 0x4000)
+                    romSelect = value & 0x1F;
+                else if (address < 0x6000)
+                    ramSelect = value & 0x03;
+                else
+                    mode = value & 0x01;
+                break;
+            case MBC3:
+                if (address < 0x4000)
+                    romSelect = value & 0x7F;
+                else if (address < 0x6000)
+                    ramSelect = value;
+                else {
+                    if (clock != null && latch == 0 && value == 1)
+                        clock.latch(now); //the port is refreshed with the banks below
+                    latch = value;
+                }
+                break;
+            default:
+                if (address < 0x3000)
+                    romSelect = (romSelect & 0x100) | value;
+                else if (address < 0x4000)
+                    romSelect = (romSelect & 0xFF) | ((value & 0x01) << 8);
+                else if (address < 0x6000)
+                    ramSelect = value & 0x0F;
+                break;
+        }
+        updateBanks();
+
+        return bank != oldBank || lowBank != oldLowBank;
     }
 
-    public void changeBank(char value) {
-        bank = value;
+    private void updateBanks() {
+        switch (controller) {
+            case MBC1:
+                //bank 0 of the 5 bit register reads as 1, so 0x20, 0x40 and 0x60 are out of reach at 0x4000
+                bank = (ramSelect << 5 | Math.max(romSelect, 1)) % romBanks;
+                lowBank = mode == 1 ? (ramSelect << 5) % romBanks : 0;
+                ramBank = mode == 1 ? ramSelect : 0;
+                break;
+            case MBC3:
+                bank = Math.max(romSelect, 1) % romBanks;
+                ramBank = ramSelect & 0x03;
+                clockSelected = ramSelect >= 0x08;
+                break;
+            case MBC5:
+                bank = romSelect % romBanks;
+                ramBank = ramSelect;
+                break;
+            default:
+                break;
+        }
+        mapRam();
     }
 
     public String getName() {
@@ -0,0 +1,36 @@
+package components;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffered handoff of finished frames from the emulation thread to the display.
+ * The producer renders into its back buffer and publishes it by swapping it with the shared
+ * ready slot, the consumer swaps its front buffer with the ready slot when a newer frame is there.
+ * Neither side ever waits for the other.
+ */
+class FrameBuffer {
+    private static final int FRESH = 1 << 2; //set in ready while it holds a frame not yet taken
+
+    private final int[][] buffers = new int[3][Video.WIDTH * Video.HEIGHT];
+    private final AtomicInteger ready = new AtomicInteger(1);
+    private int back = 0; //only touched by the producer
+    private int front = 2; //only touched by the consumer
+
+    int[] back() {
+        return buffers[back];
+    }
+
+    // publishes the back buffer and returns the buffer to render the next frame into
+    int[] publish() {
+        back = ready.getAndSet(back | FRESH) & 3;
+        return buffers[back];
+    }
+
+    // most recently published frame, only call from the consumer thread
+    int[] latest() {
+        if ((ready.get() & FRESH) != 0)
+            front = ready.getAndSet(front) & 3;
+
+        return buffers[front];
+    }
+}
@@ -0,0 +1,30 @@
+package components;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One emulated frame, from the start of one vblank to the next, recorded by machines with {@link Metrics}.
+ */
+@Name("gameboyemu.Frame")
+@Label("Frame")
+@Category("Game Boy")
+@Description("Wall time spent emulating one frame")
+@StackTrace(false) //always Video at the start of vblank
+class FrameEvent extends Event {
+    @Label("Frame")
+    long frame;
+
+    @Label("Instructions")
+    long instructions;
+
+    @Label("Cycles")
+    long cycles;
+
+    @Label("Rendered")
+    boolean rendered;
+}
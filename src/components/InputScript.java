@@ -0,0 +1,57 @@
+package components;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buttons held over time, one line per change: the frame it takes effect and the buttons held from then on,
+ * e.g. "120 START" or "300 A,RIGHT". A frame alone releases everything, lines starting with # are comments.
+ */
+class InputScript {
+    static final InputScript NONE = new InputScript(new int[0], new int[0]);
+
+    private final int[] frames;
+    private final int[] buttons;
+
+    private InputScript(int[] frames, int[] buttons) {
+        this.frames = frames;
+        this.buttons = buttons;
+    }
+
+    static InputScript load(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        int[] frames = new int[lines.size()];
+        int[] buttons = new int[lines.size()];
+        int count = 0;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split("\\s+");
+            frames[count] = Integer.parseInt(fields[0]);
+            if (count > 0 && frames[count] <= frames[count - 1])
+                throw new IOException(String.format("%s: frame %d out of order", file, frames[count]));
+
+            if (fields.length > 1) {
+                for (String name : fields[1].split(","))
+                    buttons[count] |= Joypad.button(name);
+            }
+            count++;
+        }
+
+        return new InputScript(Arrays.copyOf(frames, count), Arrays.copyOf(buttons, count));
+    }
+
+    // buttons held during frame, the script is stateless so instances can be shared
+    int buttonsAt(int frame) {
+        int i = Arrays.binarySearch(frames, frame);
+        if (i < 0)
+            i = -i - 2; //last change before frame
+
+        return i < 0 ? 0 : buttons[i];
+    }
+}
@@ -0,0 +1,51 @@
+package components;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interrupt flag (0xFF0F) and interrupt enable (0xFFFF) registers.
+ */
+class Interrupts {
+    static final int VBLANK = 0;
+    static final int LCD_STAT = 1;
+    static final int TIMER = 2;
+    static final int SERIAL = 3;
+    static final int JOYPAD = 4;
+
+    private final Scheduler scheduler;
+
+    int flags; //0xFF0F
+    int enable; //0xFFFF
+
+    Interrupts(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    void request(int interrupt) {
+        flags |= 1 << interrupt;
+        scheduler.requestCheck();
+    }
+
+    int pending() {
+        return flags & enable & 0x1F;
+    }
+
+    void writeFlags(int value) {
+        flags = value & 0x1F;
+        scheduler.requestCheck();
+    }
+
+    void writeEnable(int value) {
+        enable = value;
+        scheduler.requestCheck();
+    }
+
+    void save(ByteBuffer state) {
+        state.put((byte) flags).put((byte) enable);
+    }
+
+    void restore(ByteBuffer state) {
+        flags = state.get() & 0x1F;
+        enable = state.get() & 0xFF;
+    }
+}
@@ -0,0 +1,69 @@
+package components;
+
+import java.nio.ByteBuffer;
+
+/**
+ * P1 register (0xFF00), the game selects the direction and/or the button row and reads it back active low.
+ */
+class Joypad {
+    //bits of the pressed button mask, directions in the low nibble, buttons in the high one
+    static final int RIGHT = 1;
+    static final int LEFT = 1 << 1;
+    static final int UP = 1 << 2;
+    static final int DOWN = 1 << 3;
+    static final int A = 1 << 4;
+    static final int B = 1 << 5;
+    static final int SELECT = 1 << 6;
+    static final int START = 1 << 7;
+
+    private static final String[] NAMES = {"RIGHT", "LEFT", "UP", "DOWN", "A", "B", "SELECT", "START"};
+
+    private final Interrupts interrupts;
+
+    private int select = 0x30; //bits 4 and 5 as last written, 0 selects a row
+    private int pressed;
+
+    Joypad(Interrupts interrupts) {
+        this.interrupts = interrupts;
+    }
+
+    int read() {
+        int low = 0x0F;
+        if ((select & 0x10) == 0)
+            low &= ~pressed;
+        if ((select & 0x20) == 0)
+            low &= ~(pressed >> 4);
+
+        return 0xC0 | select | low;
+    }
+
+    void write(int value) {
+        select = value & 0x30;
+    }
+
+    void setPressed(int buttons) {
+        if ((buttons & ~pressed) != 0)
+            interrupts.request(Interrupts.JOYPAD);
+
+        pressed = buttons & 0xFF;
+    }
+
+    //pressed buttons are input, not state
+    void save(ByteBuffer state) {
+        state.put((byte) select);
+    }
+
+    void restore(ByteBuffer state) {
+        select = state.get() & 0x30;
+    }
+
+    // mask of a button by name, as used in input scripts
+    static int button(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equalsIgnoreCase(name))
+                return 1 << i;
+        }
+
+        throw new IllegalArgumentException("Unknown button " + name);
+    }
+}
@@ -0,0 +1,112 @@
+package components;
+
+/**
+ * Register file that defers the flags of ADD, ADC, SUB, SBC, CP, INC and DEC.
+ * Those only record their operands, most of their flags are overwritten by the next one before anything
+ * reads them. Conditional jumps ask for Z or C, which come straight from the operands, anything that
+ * needs the whole of F (PUSH AF, DAA, CCF, ...) materializes it through {@link #flags()} from AluTables.
+ */
+class LazyRegisters extends Registers {
+    //arithmetic whose flags are pending
+    private static final int NONE = 0;
+    private static final int ADD = 1;
+    private static final int SUB = 2;
+    private static final int INC = 3;
+    private static final int DEC = 4;
+
+    private int op = NONE;
+    private int left; //A, or the operand of INC and DEC
+    private int right;
+    private int carryIn; //carry into ADD and SUB, the untouched carry flag for INC and DEC
+    private int result;
+
+    @Override
+    int flags() {
+        switch (op) {
+            case ADD: r[F] = AluTables.ADD[carryIn << 16 | left << 8 | right] >> 8; break;
+            case SUB: r[F] = AluTables.SUB[carryIn << 16 | left << 8 | right] >> 8; break;
+            case INC: r[F] = AluTables.INC[left] >> 8 | carryIn << 4; break;
+            case DEC: r[F] = AluTables.DEC[left] >> 8 | carryIn << 4; break;
+            default: break;
+        }
+        op = NONE;
+        return r[F];
+    }
+
+    @Override
+    void setFlags(int value) {
+        op = NONE;
+        super.setFlags(value);
+    }
+
+    @Override
+    boolean getZero() {
+        return op == NONE ? super.getZero() : result == 0;
+    }
+
+    @Override
+    boolean getCarry() {
+        return carry() != 0;
+    }
+
+    @Override
+    int carry() {
+        switch (op) {
+            case ADD: return (left + right + carryIn) >> 8;
+            case SUB: return (left - right - carryIn) >>> 31;
+            case INC: case DEC: return carryIn;
+            default: return super.carry();
+        }
+    }
+
+    @Override
+    void add(int value, int carry) {
+        left = r[A];
+        right = value;
+        carryIn = carry;
+        result = r[A] = (left + value + carry) & 0xFF;
+        op = ADD;
+    }
+
+    @Override
+    void subtract(int value, int carry) {
+        left = r[A];
+        right = value;
+        carryIn = carry;
+        result = r[A] = (left - value - carry) & 0xFF;
+        op = SUB;
+    }
+
+    @Override
+    void compare(int value) {
+        left = r[A];
+        right = value;
+        carryIn = 0;
+        result = (left - value) & 0xFF;
+        op = SUB;
+    }
+
+    @Override
+    int increment(int value) {
+        carryIn = carry();
+        left = value;
+        result = (value + 1) & 0xFF;
+        op = INC;
+        return result;
+    }
+
+    @Override
+    int decrement(int value) {
+        carryIn = carry();
+        left = value;
+        result = (value - 1) & 0xFF;
+        op = DEC;
+        return result;
+    }
+
+    @Override
+    void decimalAdjust() {
+        flags();
+        super.decimalAdjust();
+    }
+}
@@ -1,9 +1,12 @@
 package components;
 
+import Exceptions.EmulatorException;
 import Exceptions.InvalidMemoryReadLocationException;
 import Exceptions.InvalidMemoryWriteLocationException;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 public class Memory {
     char[] work;
@@ -11,10 +14,53 @@ public class Memory {
     private char[] fast;
     private char[] rom; //initializing rom
     Video video;
+    final Scheduler scheduler;
+    final Interrupts interrupts;
+    private final Timer timer;
+    final Joypad joypad;
+    final SwingDisplay display; //null when headless
+
+    private static final int DMA_CYCLES = 640;
+    private static final int SERIAL_CYCLES = 8 * 512;
+    private char dma; //0xFF46
+    private char sb, sc; //0xFF01, 0xFF02
+
+    //master clock, owned by the CPU
+    private LongSupplier clock = () -> 0;
+
+    //one slot per 256 byte page, pages without a backing array go through the handlers
+    private final char[][] readPages = new char[256][];
+    private final int[] readOffsets = new int[256];
+    private final char[][] writePages = new char[256][];
+    private final int[] writeOffsets = new int[256];
+
+    //pages holding translated code lose their write slot, so their writes reach the handler and bump the generation
+    private final int[] watchers = new int[256];
+    private final char[][] watchedPages = new char[256][];
+    final int[] generations = new int[256];
+
+    //faults are reported here instead of thrown so reads and writes stay exception free
+    private Consumer<EmulatorException> faultHandler = fault -> {
+        throw new IllegalStateException(fault);
+    };
 
     public Memory(Cartridge cart) {
-        work = new char[8096];
-        video = new Video(cart.getName());
+        this(cart, false);
+    }
+
+    /**
+     * @param headless only render into {@link Video#frame}, without opening a window or loading AWT
+     */
+    public Memory(Cartridge cart, boolean headless) {
+        work = new char[0x2000];
+        scheduler = new Scheduler();
+        interrupts = new Interrupts(scheduler);
+        timer = new Timer(scheduler, interrupts);
+        joypad = new Joypad(interrupts);
+        video = new Video(scheduler, interrupts);
+        display = headless ? null : new SwingDisplay(cart.getName(), video.frames);
+        scheduler.register(Scheduler.DMA, this::finishDma);
+        scheduler.register(Scheduler.SERIAL, this::finishSerial);
         fast = new char[128];
         rom = new char[]{
                 0x31,0xfe,0xff,0xaf,0x21,0xff,0x9f,0x32,
@@ -51,94 +97,292 @@ public class Memory {
                 0xfb,0x86,0x20,0xfe,0x3e,0x01,0xe0,0x50
         };
         this.cart = cart;
+
+        mapPages();
     }
 
-    public char read(char address) throws InvalidMemoryReadLocationException, IOException {
-        if (address < 0x0100) {
-            return rom[address];
-        } else if (address < 0x0150){
-            return cart.read(address);
-        } else if(address < 0x4000) {
-            return cart.read(address);
-        } else if(address < 0x8000) {
-            return cart.read(address);
-        } else if (address < 0xA000) {
-            return video.video[address - 0x8000]; //check
-        } else if (address < 0xC000) {
-            return cart.readRam(address - 0xA000); //check
-        } else if (address < 0xE000) {
-            return work[address - 0xC000]; //check
-        } else if (address < 0xFE00) {
-            return work[address - 0xE00]; //check
-        } else if (address < 0xFEA0) {
-            //Sprite attrib memory (OAM)
-            return video.oam[address - 0xFE00]; //TODO
-        } else if (address < 0xFF00) {
+    private void mapPages() {
+        mapRomBanks();
 
-            return 1; //TODO probably fail is needed
+        //tile data writes go through the handler so the decoded tile can be invalidated
+        for (int page = 0x80; page < 0x98; page++)
+            mapReadPage(page, video.video, page - 0x80);
 
-        } else if (address < 0xFF80) {
-            if (address == 0xFF40) {
-                //LCD control
-                return video.lcdc;
-            }
-            return 1; //TODO
+        for (int page = 0x98; page < 0xA0; page++)
+            mapPage(page, video.video, page - 0x80);
+
+        for (int page = 0xC0; page < 0xE0; page++)
+            mapPage(page, work, page - 0xC0);
+
+        //echo of 0xC000 - 0xDDFF
+        for (int page = 0xE0; page < 0xFE; page++)
+            mapPage(page, work, page - 0xE0);
+
+        mapPage(0xFE, video.oam, 0);
+
+        //0x0000 - 0x00FF is served from the boot rom until it is disabled through 0xFF50
+        mapReadPage(0x00, rom, 0);
+    }
+
+    // counts writes to page, and to its echo, in generations[page] until unwatched as many times
+    void watchPage(int page) {
+        if (watchers[page]++ == 0) {
+            unmapWrite(page);
+            if (page >= 0xC0 && page < 0xDE)
+                unmapWrite(page + 0x20);
+        }
+    }
+
+    void unwatchPage(int page) {
+        if (--watchers[page] == 0) {
+            remapWrite(page);
+            if (page >= 0xC0 && page < 0xDE)
+                remapWrite(page + 0x20);
+        }
+    }
+
+    private void unmapWrite(int page) {
+        watchedPages[page] = writePages[page];
+        writePages[page] = null;
+    }
+
+    private void remapWrite(int page) {
+        writePages[page] = watchedPages[page];
+        watchedPages[page] = null;
+    }
+
+    private void codeWritten(int page) {
+        generations[page >= 0xE0 && page < 0xFE ? page - 0x20 : page]++;
+        scheduler.requestCheck(); //the running block may be the one rewritten
+    }
+
+    boolean bootRomMapped() {
+        return readPages[0x00] == rom;
+    }
+
+    // the boot rom stays over the first page while mapped
+    private void mapRomBanks() {
+        int lowBank = cart.getLowBankOffset() >> 8;
+        for (int page = bootRomMapped() ? 0x01 : 0x00; page < 0x40; page++)
+            mapReadPage(page, cart.rom, lowBank + page);
+
+        int bank = cart.getBankOffset() >> 8;
+        for (int page = 0x40; page < 0x80; page++)
+            mapReadPage(page, cart.rom, bank + page - 0x40);
+    }
+
+    //read only pages, writes keep going to the handler
+    private void mapReadPage(int page, char[] memory, int index) {
+        readPages[page] = memory;
+        readOffsets[page] = index << 8;
+    }
+
+    private void mapPage(int page, char[] memory, int index) {
+        readPages[page] = memory;
+        readOffsets[page] = index << 8;
+        writePages[page] = memory;
+        writeOffsets[page] = index << 8;
+    }
+
+    public char read(char address) {
+        int page = address >> 8;
+        char[] memory = readPages[page];
+        if (memory != null)
+            return memory[readOffsets[page] + (address & 0xFF)];
+
+        return readHandler(address);
+    }
+
+    public void write(char address, char value) {
+        int page = address >> 8;
+        char[] memory = writePages[page];
+        if (memory != null)
+            memory[writeOffsets[page] + (address & 0xFF)] = value;
+        else
+            writeHandler(address, value);
+    }
+
+    private char readHandler(char address) {
+        if (address >= 0xA000 && address < 0xC000) {
+            return cart.readRam(address - 0xA000);
+        } else if (address >= 0xFF00 && address < 0xFF80) {
+            return readIO(address & 0xFF);
         } else if (address < 0xFFFF) {
             return fast[address - 0xFF80]; //check
         } else if (address == 0xFFFF){
-            return 1; //TODO interrupt flag
+            return (char) interrupts.enable;
         }
 
-        throw new InvalidMemoryReadLocationException();
-    }
-
-    public void write(char address, char value) throws InvalidMemoryWriteLocationException {
-        if (address <= 0x00FF) {
-            //TODO
-        } else if (address <= 0x014F){
-            //TODO
-        } else if(address <= 0x3FFF) {
-            //TODO
-            //return cart.read(address);
-            if (address == 0x2000)
-                cart.changeBank(value);
-        } else if(address <= 0x7FFF) {
-            //TODO
-            //return cart.read(address);
-        } else if (address <= 0x9FFF) {
-            video.video[address - 0x8000] = value;
-        } else if (address <= 0xBFFF) {
-            cart.writeRam(address - 0xA000, value); // check
-        } else if (address <= 0xDFFF) {
-            work[address - 0xC000] = value; // check
-        } else if (address <= 0xFDFF) {
-            work[address - 0xE000] = value; //check
-        } else if (address <= 0xFE9F) {
-            video.oam[address - 0xFE00] = value;
-        } else if (address <= 0xFEFF) {
-
-            //TODO probably fail is needed
+        faultHandler.accept(new InvalidMemoryReadLocationException(String.format("%04X", (int) address)));
+        return 0xFF;
+    }
 
-        } else if (address <= 0xFF7F) {
-            //TODO
-            if (address == 0xFF40) {
-                //LCD control
-                video.lcdc = value;
+    private char readIO(int register) {
+        switch (register) {
+            case 0x00: return (char) joypad.read();
+            case 0x01: return sb;
+            case 0x02: return (char) (0x7E | sc);
+            case 0x04: return (char) timer.readDiv(clock.getAsLong());
+            case 0x05: return (char) timer.readTima(clock.getAsLong());
+            case 0x06: return (char) timer.readTma();
+            case 0x07: return (char) timer.readTac();
+            case 0x0F: return (char) (0xE0 | interrupts.flags);
+            case 0x40: return video.lcdc;
+            case 0x41: return video.readStat();
+            case 0x42: return video.scrollY;
+            case 0x43: return video.scrollX;
+            case 0x44: return video.ly;
+            case 0x45: return video.lyc;
+            case 0x46: return dma;
+            case 0x47: return video.bgp;
+            case 0x48: return video.obp0;
+            case 0x49: return video.obp1;
+            case 0x4A: return video.wy;
+            case 0x4B: return video.wx;
+            default: return 0xFF; //TODO
+        }
+    }
+
+    private void writeHandler(char address, char value) {
+        int page = address >> 8;
+        char[] watched = watchedPages[page];
+        if (watched != null) {
+            watched[writeOffsets[page] + (address & 0xFF)] = value;
+            codeWritten(page);
+        } else if (address <= 0x7FFF) {
+            if (cart.writeRegister(address, value, clock.getAsLong())) {
+                mapRomBanks();
+                scheduler.requestCheck(); //translated blocks must not run on into the old bank
             }
+        } else if (address <= 0x97FF) {
+            video.writeTileData(address - 0x8000, value);
+        } else if (address >= 0xA000 && address <= 0xBFFF) {
+            cart.writeRam(address - 0xA000, value, clock.getAsLong());
+        } else if (address < 0xFF00) {
+            faultHandler.accept(new InvalidMemoryWriteLocationException(String.format("%04X", (int) address)));
+        } else if (address <= 0xFF7F) {
+            writeIO(address & 0xFF, value);
         } else if (address <= 0xFFFE) {
             fast[address - 0xFF80] = value; //check
-        } else if (address == 0xFFFF){
-            //TODO interrupt flag
+            if (watchers[0xFF] != 0)
+                codeWritten(0xFF);
         } else {
-            throw new InvalidMemoryWriteLocationException(String.format("%08X", address));
+            interrupts.writeEnable(value);
         }
     }
 
-    public void decrement(char address) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
+    private void writeIO(int register, char value) {
+        switch (register) {
+            case 0x00: joypad.write(value); break;
+            case 0x01: sb = value; break;
+            case 0x02: writeSerialControl(value); break;
+            case 0x04: timer.writeDiv(clock.getAsLong()); break;
+            case 0x05: timer.writeTima(clock.getAsLong(), value); break;
+            case 0x06: timer.writeTma(value); break;
+            case 0x07: timer.writeTac(clock.getAsLong(), value); break;
+            case 0x0F: interrupts.writeFlags(value); break;
+            case 0x40: video.writeLcdc(value, clock.getAsLong()); break;
+            case 0x41: video.writeStat(value); break;
+            case 0x42: video.scrollY = value; break;
+            case 0x43: video.scrollX = value; break;
+            case 0x45: video.writeLyc(value); break;
+            case 0x46: startDma(value); break;
+            case 0x47: video.bgp = value; break;
+            case 0x48: video.obp0 = value; break;
+            case 0x49: video.obp1 = value; break;
+            case 0x4A: video.wy = value; break;
+            case 0x4B: video.wx = value; break;
+            case 0x50:
+                //boot rom disable
+                if (value != 0)
+                    mapReadPage(0x00, cart.rom, cart.getLowBankOffset() >> 8);
+                break;
+            default: break; //TODO
+        }
+    }
+
+    //the 160 bytes are copied when the transfer completes, 640 cycles after it starts
+    private void startDma(char value) {
+        dma = value;
+        scheduler.schedule(Scheduler.DMA, clock.getAsLong() + DMA_CYCLES);
+    }
+
+    private void finishDma(long deadline) {
+        int source = dma << 8;
+        for (int i = 0; i < 0xA0; i++)
+            video.oam[i] = read((char) (source + i));
+    }
+
+    //without a link cable partner a transfer with the internal clock shifts in 0xFF
+    private void writeSerialControl(char value) {
+        sc = (char) (value & 0x81);
+        if (sc == 0x81)
+            scheduler.schedule(Scheduler.SERIAL, clock.getAsLong() + SERIAL_CYCLES);
+    }
+
+    private void finishSerial(long deadline) {
+        sb = 0xFF;
+        sc &= 0x7F;
+        interrupts.request(Interrupts.SERIAL);
+    }
+
+    void save(ByteBuffer state) {
+        SaveState.put(state, work);
+        SaveState.put(state, fast);
+        state.put((byte) dma).put((byte) sb).put((byte) sc);
+        state.put((byte) (bootRomMapped() ? 1 : 0));
+        scheduler.save(state);
+        interrupts.save(state);
+        timer.save(state);
+        joypad.save(state);
+        video.save(state);
+        cart.save(state);
+    }
+
+    void restore(ByteBuffer state) {
+        SaveState.get(state, work);
+        SaveState.get(state, fast);
+        dma = (char) (state.get() & 0xFF);
+        sb = (char) (state.get() & 0xFF);
+        sc = (char) (state.get() & 0xFF);
+        boolean boot = state.get() != 0;
+        scheduler.restore(state);
+        interrupts.restore(state);
+        timer.restore(state);
+        joypad.restore(state);
+        video.restore(state);
+        cart.restore(state);
+        if (boot)
+            mapReadPage(0x00, rom, 0);
+        else
+            mapReadPage(0x00, cart.rom, 0); //anything but the boot rom, mapRomBanks maps the low bank
+        mapRomBanks();
+
+        //ram was replaced underneath any translated code
+        for (int page = 0; page < generations.length; page++)
+            generations[page]++;
+    }
+
+    /**
+     * Writes battery backed ram and the cartridge clock through to the save file, if there is one.
+     */
+    public void flush() {
+        cart.flush(clock.getAsLong());
+    }
+
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public void setFaultHandler(Consumer<EmulatorException> faultHandler) {
+        this.faultHandler = faultHandler;
+    }
+
+    public void decrement(char address) {
         write(address, (char) (read(address) - 1));
     }
 
-    public void increment(char address) throws InvalidMemoryReadLocationException, IOException, InvalidMemoryWriteLocationException {
+    public void increment(char address) {
         write(address, (char) (read(address) + 1));
     }
 }
@@ -0,0 +1,123 @@
+package components;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counters of one machine, readable through JMX and recorded as {@link FrameEvent}s by JFR.
+ * Machines without Metrics pay nothing for them. Once attached the CPU leaves its engine for an
+ * interpreter loop that counts instructions, and per opcode with histograms on, while Video reports
+ * every frame. Instructions skipped by idle loop detection are not counted, their cycles are.
+ */
+public class Metrics implements MetricsMBean {
+    final long[] opcodes = new long[256];
+    final long[] cbOpcodes = new long[256]; //by the byte after the prefix
+    volatile boolean histograms; //read by the CPU once per run of instructions
+
+    //written by the emulation thread only, read from any
+    private volatile long instructions;
+    private volatile long cycles; //master clock at the last frame
+    private volatile long frames;
+    private volatile long renderedFrames;
+    private volatile long lastFrameNanos;
+    private volatile long totalFrameNanos;
+
+    private long frameStart = System.nanoTime();
+    private long frameInstructions; //instructions when the frame started
+    private FrameEvent event = new FrameEvent();
+
+    public Metrics(CPU cpu, boolean histograms) {
+        this.histograms = histograms;
+        cpu.setMetrics(this);
+        event.begin();
+    }
+
+    /**
+     * Registers with the platform MBean server as gameboyemu:type=Metrics,name=name.
+     */
+    public void register(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("gameboyemu:type=Metrics,name=" + ObjectName.quote(name)));
+    }
+
+    void executed(long count) {
+        instructions += count;
+    }
+
+    // at the start of vblank, now being the cycle it started on
+    void frame(long now, boolean rendered) {
+        long end = System.nanoTime();
+        long frame = ++frames;
+        if (rendered)
+            renderedFrames++;
+        long elapsed = now - cycles;
+        cycles = now;
+        lastFrameNanos = end - frameStart;
+        totalFrameNanos += end - frameStart;
+        frameStart = end;
+
+        long count = instructions;
+        if (event.shouldCommit()) {
+            event.frame = frame;
+            event.instructions = count - frameInstructions;
+            event.cycles = elapsed;
+            event.rendered = rendered;
+            event.commit();
+            event = new FrameEvent();
+        }
+        frameInstructions = count;
+        event.begin(); //restarts an uncommitted event, so nothing is allocated while JFR is not recording
+    }
+
+    @Override
+    public long getInstructions() {
+        return instructions;
+    }
+
+    @Override
+    public long getCycles() {
+        return cycles;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public long getRenderedFrames() {
+        return renderedFrames;
+    }
+
+    @Override
+    public long getLastFrameNanos() {
+        return lastFrameNanos;
+    }
+
+    @Override
+    public double getAverageFrameNanos() {
+        long count = frames;
+        return count == 0 ? 0 : (double) totalFrameNanos / count;
+    }
+
+    @Override
+    public boolean isHistograms() {
+        return histograms;
+    }
+
+    @Override
+    public void setHistograms(boolean histograms) {
+        this.histograms = histograms;
+    }
+
+    @Override
+    public long[] getOpcodeHistogram() {
+        return opcodes.clone();
+    }
+
+    @Override
+    public long[] getCbOpcodeHistogram() {
+        return cbOpcodes.clone();
+    }
+}
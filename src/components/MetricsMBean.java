@@ -0,0 +1,26 @@
+package components;
+
+/**
+ * What {@link Metrics} shows through JMX.
+ */
+public interface MetricsMBean {
+    long getInstructions();
+
+    long getCycles();
+
+    long getFrames();
+
+    long getRenderedFrames();
+
+    long getLastFrameNanos();
+
+    double getAverageFrameNanos();
+
+    boolean isHistograms();
+
+    void setHistograms(boolean histograms);
+
+    long[] getOpcodeHistogram();
+
+    long[] getCbOpcodeHistogram();
+}
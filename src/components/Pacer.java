@@ -0,0 +1,93 @@
+package components;
+
+import Exceptions.EmulatorException;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a machine either at the speed of the real hardware or as fast as possible.
+ * Real time runs one frame of clock cycles at a time and sleeps until the wall clock catches up,
+ * turbo never sleeps and only renders some frames. Both write battery backed ram through to its save file
+ * every FLUSH_NANOS of wall time, and with a {@link Rewind} attached record every frame into it and step
+ * back instead of running on while the rewind key of the window is held.
+ */
+public class Pacer {
+    public static final int CLOCK_RATE = 4194304; //clock cycles per second
+    public static final double FRAME_RATE = (double) CLOCK_RATE / Video.FRAME_CYCLES; //59.73 Hz
+
+    private static final long MAX_LAG_NANOS = 100_000_000; //further behind than this is not caught up
+    private static final long FLUSH_NANOS = 1_000_000_000;
+
+    private final CPU cpu;
+    private final Video video;
+    private final Memory memory;
+    private long lastFlush = System.nanoTime();
+    private Rewind rewind; //null unless attached
+
+    public Pacer(CPU cpu, Memory memory) {
+        this.cpu = cpu;
+        video = memory.video;
+        this.memory = memory;
+    }
+
+    public void setRewind(Rewind rewind) {
+        this.rewind = rewind;
+    }
+
+    public void runRealTime() throws EmulatorException {
+        video.setRenderInterval(1);
+
+        long cycles = 0; //emulated since startNanos, stepping back moves the master clock backwards
+        long startNanos = System.nanoTime();
+        while (true) {
+            cycles += frame();
+            flushPeriodically();
+
+            long target = startNanos + cycles * 1_000_000_000L / CLOCK_RATE;
+            long ahead = target - System.nanoTime();
+            if (ahead > 0) {
+                LockSupport.parkNanos(ahead);
+            } else if (-ahead > MAX_LAG_NANOS) {
+                //the host stalled, carry on from now instead of running flat out to catch up
+                cycles = 0;
+                startNanos = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * @param renderInterval render every Nth frame, 0 renders none
+     */
+    public void runTurbo(int renderInterval) throws EmulatorException {
+        video.setRenderInterval(renderInterval);
+        while (true) {
+            frame();
+            flushPeriodically();
+        }
+    }
+
+    // runs one frame and returns the cycles it took, while rewinding that is the frame after the snapshot
+    // stepped back to, which is shown but not recorded
+    private long frame() throws EmulatorException {
+        if (rewind == null) {
+            long start = cpu.getTime();
+            cpu.runUntil(start + Video.FRAME_CYCLES);
+            return cpu.getTime() - start;
+        }
+
+        boolean back = memory.display != null && memory.display.isRewindHeld() && rewind.stepBack();
+        long start = cpu.getTime();
+        cpu.runUntil(start + Video.FRAME_CYCLES);
+        if (!back)
+            rewind.frame();
+        return cpu.getTime() - start;
+    }
+
+    private void flushPeriodically() {
+        long now = System.nanoTime();
+        if (now - lastFlush >= FLUSH_NANOS) {
+            memory.flush();
+            lastFlush = now;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package components;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * MBC3 real time clock, counting master clock cycles so it keeps the pace of the game rather than the host.
+ * Its registers are selected like ram banks 0x08 - 0x0C: seconds, minutes, hours, the low 8 bits of the day
+ * counter, then day counter bit 8 in bit 0, halt in bit 6 and day counter carry in bit 7.
+ * Reads see the values copied by the last latch.
+ * Battery backed carts keep it after their ram in the .sav file, in the layout most emulators append:
+ * the registers, the latched registers, then the unix time it was written at. The time is only written,
+ * the clock carries on from the saved registers rather than catching up with the host.
+ */
+class RealTimeClock {
+    private static final long SECOND = Pacer.CLOCK_RATE;
+    private static final long DAYS = 512 * 86400 * SECOND; //the day counter wraps here, setting carry
+
+    static final int FILE_SIZE = 48; //ten little endian ints and a long
+
+    private static final int[] MASKS = {0x3F, 0x3F, 0x1F, 0xFF, 0xC1};
+
+    private long cycles; //since day 0 00:00:00, as of updated
+    private long updated; //master clock cycle cycles was brought up to
+    private boolean halt;
+    private boolean carry;
+    private final int[] latched = new int[5];
+
+    private void update(long now) {
+        if (!halt)
+            cycles += now - updated;
+        updated = now;
+
+        if (cycles >= DAYS) {
+            cycles %= DAYS;
+            carry = true;
+        }
+    }
+
+    void latch(long now) {
+        update(now);
+        registers(cycles, carry, latched);
+    }
+
+    private void registers(long cycles, boolean carry, int[] into) {
+        long seconds = cycles / SECOND;
+        long days = seconds / 86400;
+        into[0] = (int) (seconds % 60);
+        into[1] = (int) (seconds / 60 % 60);
+        into[2] = (int) (seconds / 3600 % 24);
+        into[3] = (int) (days & 0xFF);
+        into[4] = (int) (days >> 8) | (halt ? 0x40 : 0) | (carry ? 0x80 : 0);
+    }
+
+    private static long cycles(long day, long hour, long minute, long second) {
+        return (((day * 24 + hour) * 60 + minute) * 60 + second) * SECOND;
+    }
+
+    int read(int register) {
+        return latched[register - 0x08];
+    }
+
+    // out of range seconds, minutes and hours wrap into the next unit instead of counting up to the mask
+    void write(int register, int value, long now) {
+        update(now);
+        int index = register - 0x08;
+        value &= MASKS[index];
+        latched[index] = value;
+
+        long seconds = cycles / SECOND;
+        long fraction = cycles % SECOND;
+        long second = seconds % 60;
+        long minute = seconds / 60 % 60;
+        long hour = seconds / 3600 % 24;
+        long day = seconds / 86400;
+        switch (register) {
+            case 0x08:
+                second = value;
+                fraction = 0; //writing the seconds restarts the current one
+                break;
+            case 0x09: minute = value; break;
+            case 0x0A: hour = value; break;
+            case 0x0B: day = (day & 0x100) | value; break;
+            default:
+                day = (day & 0xFF) | ((value & 1) << 8);
+                halt = (value & 0x40) != 0;
+                carry = (value & 0x80) != 0;
+                break;
+        }
+
+        cycles = cycles(day, hour, minute, second) + fraction;
+        update(now);
+    }
+
+    void save(ByteBuffer state) {
+        state.putLong(cycles).putLong(updated);
+        state.put((byte) ((halt ? 1 : 0) | (carry ? 2 : 0)));
+        for (int value : latched)
+            state.put((byte) value);
+    }
+
+    void restore(ByteBuffer state) {
+        cycles = state.getLong();
+        updated = state.getLong();
+        int flags = state.get();
+        halt = (flags & 1) != 0;
+        carry = (flags & 2) != 0;
+        for (int i = 0; i < latched.length; i++)
+            latched[i] = state.get() & 0xFF;
+    }
+
+    // leaves the clock as it is, the emulation may still be running on another thread
+    void store(ByteBuffer file, long now) {
+        long current = halt ? cycles : cycles + now - updated;
+        int[] registers = new int[5];
+        registers(current % DAYS, carry || current >= DAYS, registers);
+
+        file.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < registers.length; i++) {
+            file.putInt(4 * i, registers[i]);
+            file.putInt(20 + 4 * i, latched[i]);
+        }
+        file.putLong(40, System.currentTimeMillis() / 1000);
+    }
+
+    void load(ByteBuffer file) {
+        file.order(ByteOrder.LITTLE_ENDIAN);
+        int[] registers = new int[5];
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = file.getInt(4 * i) & MASKS[i];
+            latched[i] = file.getInt(20 + 4 * i) & MASKS[i];
+        }
+        halt = (registers[4] & 0x40) != 0;
+        carry = (registers[4] & 0x80) != 0;
+        cycles = cycles((registers[4] & 1) << 8 | registers[3], registers[2], registers[1], registers[0]);
+        updated = 0;
+    }
+}
@@ -0,0 +1,178 @@
+package components;
+
+/**
+ * Register file of the CPU kept as plain ints.
+ * The 8 bit registers share one array indexed the same way opcodes encode them
+ * (B, C, D, E, H, L, (HL), A), with F stored in the slot (HL) would use.
+ */
+class Registers {
+    static final int B = 0;
+    static final int C = 1;
+    static final int D = 2;
+    static final int E = 3;
+    static final int H = 4;
+    static final int L = 5;
+    static final int F = 6;
+    static final int A = 7;
+
+    static final int ZERO = 1 << 7;
+    static final int SUBTRACT = 1 << 6;
+    static final int HALF_CARRY = 1 << 5;
+    static final int CARRY = 1 << 4;
+
+    final int[] r = new int[8];
+    int sp; //stack pointer
+    int pc; //program counter
+
+    int getPair(int high) {
+        return (r[high] << 8) | r[high + 1];
+    }
+
+    void setPair(int high, int value) {
+        r[high] = (value >> 8) & 0xFF;
+        r[high + 1] = value & 0xFF;
+    }
+
+    int getBC() {
+        return getPair(B);
+    }
+
+    void setBC(int value) {
+        setPair(B, value);
+    }
+
+    int getDE() {
+        return getPair(D);
+    }
+
+    void setDE(int value) {
+        setPair(D, value);
+    }
+
+    int getHL() {
+        return getPair(H);
+    }
+
+    void setHL(int value) {
+        setPair(H, value);
+    }
+
+    int getAF() {
+        return (r[A] << 8) | flags();
+    }
+
+    void setAF(int value) {
+        r[A] = (value >> 8) & 0xFF;
+        setFlags(value & 0xF0); //low nibble of F always reads as 0
+    }
+
+    // F, code outside this class goes through these two instead of r[F], see LazyRegisters
+    int flags() {
+        return r[F];
+    }
+
+    void setFlags(int value) {
+        r[F] = value;
+    }
+
+    boolean getZero() {
+        return (r[F] & ZERO) != 0;
+    }
+
+    boolean getCarry() {
+        return (r[F] & CARRY) != 0;
+    }
+
+    int carry() {
+        return (r[F] >> 4) & 1;
+    }
+
+    // ZERO if value is 0, 0 otherwise, value must not be negative
+    static int zero(int value) {
+        return ((value - 1) >> 31) & ZERO;
+    }
+
+    // the arithmetic below looks up result and flags together in AluTables
+
+    void add(int value, int carry) {
+        int entry = AluTables.ADD[carry << 16 | r[A] << 8 | value];
+        r[A] = entry & 0xFF;
+        r[F] = entry >> 8;
+    }
+
+    void subtract(int value, int carry) {
+        int entry = AluTables.SUB[carry << 16 | r[A] << 8 | value];
+        r[A] = entry & 0xFF;
+        r[F] = entry >> 8;
+    }
+
+    void compare(int value) {
+        r[F] = AluTables.SUB[r[A] << 8 | value] >> 8;
+    }
+
+    int increment(int value) {
+        int entry = AluTables.INC[value];
+        r[F] = (entry >> 8) | (r[F] & CARRY);
+        return entry & 0xFF;
+    }
+
+    int decrement(int value) {
+        int entry = AluTables.DEC[value];
+        r[F] = (entry >> 8) | (r[F] & CARRY);
+        return entry & 0xFF;
+    }
+
+    void decimalAdjust() {
+        int entry = AluTables.DAA[(r[F] >> 4 & 0x07) << 8 | r[A]];
+        r[A] = entry & 0xFF;
+        r[F] = entry >> 8;
+    }
+
+    int rotateLeftCarry(int value) {
+        int result = ((value << 1) | (value >> 7)) & 0xFF;
+        setFlags(zero(result) | ((value >> 3) & CARRY));
+        return result;
+    }
+
+    int rotateRightCarry(int value) {
+        int result = ((value >> 1) | (value << 7)) & 0xFF;
+        setFlags(zero(result) | ((value & 1) << 4));
+        return result;
+    }
+
+    int rotateLeft(int value) {
+        int result = ((value << 1) | carry()) & 0xFF;
+        setFlags(zero(result) | ((value >> 3) & CARRY));
+        return result;
+    }
+
+    int rotateRight(int value) {
+        int result = (value >> 1) | (carry() << 7);
+        setFlags(zero(result) | ((value & 1) << 4));
+        return result;
+    }
+
+    int shiftLeftA(int value) {
+        int result = (value << 1) & 0xFF;
+        setFlags(zero(result) | ((value >> 3) & CARRY));
+        return result;
+    }
+
+    int shiftRightA(int value) {
+        int result = (value >> 1) | (value & 0x80);
+        setFlags(zero(result) | ((value & 1) << 4));
+        return result;
+    }
+
+    int shiftRightL(int value) {
+        int result = value >> 1;
+        setFlags(zero(result) | ((value & 1) << 4));
+        return result;
+    }
+
+    int swap(int value) {
+        int result = ((value & 0x0F) << 4) | (value >> 4);
+        setFlags(zero(result));
+        return result;
+    }
+}
@@ -0,0 +1,229 @@
+package components;
+
+import java.util.Arrays;
+
+/**
+ * Bounded history of snapshots to step back through.
+ * Every interval frames a snapshot is stored, every keyframeInterval snapshots as a keyframe and
+ * otherwise as the XOR against the last keyframe. Both are run length encoded (zero run, literal run,
+ * literal bytes) into one ring of bytes allocated up front, so memory stays flat however long it runs.
+ * Runs longer than 16 bits allow continue in the next pair, after an empty literal or zero run.
+ * When the ring is full the oldest keyframe is dropped along with the deltas that depend on it.
+ */
+public class Rewind {
+    private static final int MIN_ZERO_RUN = 4; //shorter runs of zeros are cheaper left inside a literal
+    private static final int MIN_ENTRY = 64; //used to size the entry ring, deltas are rarely smaller
+    private static final int MAX_RUN = 0xFFFF; //run lengths are stored in 16 bits, longer runs are split
+
+    private final SaveState state;
+    private final int interval;
+    private final int keyframeInterval;
+
+    private final byte[] ring;
+    private int head; //where the next entry is written
+
+    //entries, oldest first from first
+    private final int[] offsets;
+    private final int[] lengths;
+    private final boolean[] keyframes;
+    private int first;
+    private int count;
+
+    //scratch, one snapshot each
+    private final byte[] current;
+    private final byte[] keyframe;
+    private final byte[] encoded;
+    private int stateLength;
+
+    private int frames;
+    private int sinceKeyframe;
+
+    /**
+     * @param interval frames between snapshots
+     * @param keyframeInterval snapshots between keyframes
+     * @param capacity bytes of history to keep
+     */
+    public Rewind(CPU cpu, int interval, int keyframeInterval, int capacity) {
+        this.interval = interval;
+        this.keyframeInterval = keyframeInterval;
+        state = new SaveState(cpu);
+        ring = new byte[capacity];
+
+        int entries = Math.max(1, capacity / MIN_ENTRY);
+        offsets = new int[entries];
+        lengths = new int[entries];
+        keyframes = new boolean[entries];
+
+        state.capture();
+        current = new byte[state.capacity()];
+        keyframe = new byte[current.length];
+        encoded = new byte[current.length * 2 + 2 * MIN_ZERO_RUN];
+        sinceKeyframe = keyframeInterval;
+    }
+
+    // call once per emulated frame
+    public void frame() {
+        if (++frames >= interval) {
+            frames = 0;
+            record();
+        }
+    }
+
+    public void record() {
+        state.capture();
+        stateLength = state.copyTo(current);
+
+        boolean key = sinceKeyframe >= keyframeInterval;
+        if (!key && !store(false, encode(keyframe)))
+            key = true; //the keyframe got evicted to make room
+
+        if (key) {
+            System.arraycopy(current, 0, keyframe, 0, stateLength);
+            store(true, encode(null));
+            sinceKeyframe = 0;
+        }
+
+        sinceKeyframe++;
+    }
+
+    /**
+     * Restores the most recent snapshot and forgets it, so calling again goes further back.
+     * @return false if there is no history left
+     */
+    public boolean stepBack() {
+        if (count == 0)
+            return false;
+
+        int last = index(count - 1);
+        int key = count - 1;
+        while (!keyframes[index(key)])
+            key--;
+
+        Arrays.fill(current, (byte) 0);
+        decode(index(key), current);
+        if (last != index(key))
+            decode(last, current);
+
+        state.copyFrom(current, stateLength);
+        state.restore();
+
+        count--;
+        head = count == 0 ? 0 : offsets[index(count - 1)] + lengths[index(count - 1)];
+        frames = 0;
+        sinceKeyframe = keyframeInterval; //the last keyframe may be gone, start a new one
+        return true;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int bytesUsed() {
+        int used = 0;
+        for (int i = 0; i < count; i++)
+            used += lengths[index(i)];
+
+        return used;
+    }
+
+    private int index(int entry) {
+        return (first + entry) % offsets.length;
+    }
+
+    // encodes current, XORed against base unless null, into encoded
+    private int encode(byte[] base) {
+        int in = 0;
+        int out = 0;
+        while (in < stateLength) {
+            int zeros = in;
+            while (in < stateLength && in - zeros < MAX_RUN && diff(base, in) == 0)
+                in++;
+            zeros = in - zeros;
+
+            int literals = in;
+            while (in < stateLength && in - literals < MAX_RUN && !zeroRun(base, in))
+                in++;
+            literals = in - literals;
+
+            out = putShort(out, zeros);
+            out = putShort(out, literals);
+            for (int i = in - literals; i < in; i++)
+                encoded[out++] = (byte) diff(base, i);
+        }
+
+        return out;
+    }
+
+    private int diff(byte[] base, int i) {
+        return base == null ? current[i] : current[i] ^ base[i];
+    }
+
+    private boolean zeroRun(byte[] base, int in) {
+        int end = Math.min(in + MIN_ZERO_RUN, stateLength);
+        for (int i = in; i < end; i++) {
+            if (diff(base, i) != 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    private int putShort(int out, int value) {
+        encoded[out] = (byte) (value >> 8);
+        encoded[out + 1] = (byte) value;
+        return out + 2;
+    }
+
+    // XORs entry into target
+    private void decode(int entry, byte[] target) {
+        int in = offsets[entry];
+        int end = in + lengths[entry];
+        int position = 0;
+        while (in < end) {
+            position += ((ring[in] & 0xFF) << 8) | (ring[in + 1] & 0xFF);
+            int literals = ((ring[in + 2] & 0xFF) << 8) | (ring[in + 3] & 0xFF);
+            in += 4;
+            for (int i = 0; i < literals; i++)
+                target[position++] ^= ring[in++];
+        }
+    }
+
+    // appends encoded as a new entry, false if a delta lost its keyframe making room
+    private boolean store(boolean key, int length) {
+        if (length > ring.length)
+            throw new IllegalStateException("Rewind capacity smaller than one snapshot");
+
+        if (count == 0) {
+            head = 0;
+        } else if (head + length > ring.length) {
+            //the tail is abandoned, the entries in it are the oldest
+            while (count > 0 && offsets[first] >= head)
+                evict();
+            head = 0;
+        }
+
+        while (count > 0 && (count == offsets.length || (offsets[first] >= head && offsets[first] < head + length)))
+            evict();
+
+        //deltas are useless without their keyframe
+        while (count > 0 && !keyframes[first])
+            evict();
+
+        if (!key && count == 0)
+            return false;
+
+        int entry = index(count);
+        System.arraycopy(encoded, 0, ring, head, length);
+        offsets[entry] = head;
+        lengths[entry] = length;
+        keyframes[entry] = key;
+        count++;
+        head += length;
+        return true;
+    }
+
+    private void evict() {
+        first = (first + 1) % offsets.length;
+        count--;
+    }
+}
@@ -0,0 +1,130 @@
+package components;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Versioned binary snapshot of a whole machine.
+ * The snapshot lives in one buffer allocated up front, so capturing, restoring and moving it
+ * through a FileChannel never allocate. Layout: magic, version, cartridge checksum, then each
+ * component in turn, see the save methods of CPU, Memory and the components it owns.
+ */
+public class SaveState {
+    private static final int MAGIC = 0x47425353; //"GBSS"
+    private static final int VERSION = 4; //2 added the joypad, 3 the halt state, 4 the bank controller and cartridge ram
+    private static final int HEADER_SIZE = 12;
+    private static final int CAPACITY = 0x8000; //the machine takes a bit over 16KB, plus the cartridge ram
+
+    private final CPU cpu;
+    private final int checksum;
+    private final ByteBuffer buffer;
+    private final int size; //of every capture, the machine writes the same fields each time
+    private boolean empty = true;
+
+    public SaveState(CPU cpu) {
+        this.cpu = cpu;
+        checksum = cpu.getCartridge().getChecksum();
+        buffer = ByteBuffer.allocateDirect(CAPACITY + cpu.getCartridge().getRamSize());
+        buffer.position(HEADER_SIZE);
+        cpu.save(buffer);
+        size = buffer.position();
+        buffer.clear();
+    }
+
+    public void capture() {
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(checksum);
+        cpu.save(buffer);
+        buffer.flip();
+        empty = false;
+    }
+
+    public void restore() {
+        if (empty)
+            throw new IllegalStateException("Nothing captured");
+
+        buffer.position(HEADER_SIZE);
+        cpu.restore(buffer);
+    }
+
+    public void write(FileChannel channel) throws IOException {
+        if (empty)
+            throw new IllegalStateException("Nothing captured");
+
+        buffer.rewind();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    // reads a snapshot written by write, restore() then applies it, a short or long one is rejected before that
+    public void read(FileChannel channel) throws IOException {
+        empty = true;
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) ;
+        buffer.flip();
+
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+            throw new IOException("Not a save state");
+
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException(String.format("Unsupported save state version %d", version));
+
+        if (buffer.getInt() != checksum)
+            throw new IOException("Save state belongs to another cartridge");
+
+        if (buffer.limit() != size)
+            throw new IOException(String.format("Save state has %d bytes instead of %d", buffer.limit(), size));
+
+        empty = false;
+    }
+
+    public void save(Path file) throws IOException {
+        capture();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel);
+        }
+    }
+
+    public void load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(channel);
+        }
+        restore();
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    // copies the captured snapshot into bytes, returning its length
+    int copyTo(byte[] bytes) {
+        buffer.rewind();
+        int length = buffer.remaining();
+        buffer.get(bytes, 0, length);
+        buffer.rewind();
+        return length;
+    }
+
+    // replaces the snapshot with the first length bytes, as produced by copyTo
+    void copyFrom(byte[] bytes, int length) {
+        buffer.clear();
+        buffer.put(bytes, 0, length);
+        buffer.flip();
+        empty = false;
+    }
+
+    static void put(ByteBuffer state, char[] memory) {
+        for (char value : memory)
+            state.put((byte) value);
+    }
+
+    static void get(ByteBuffer state, char[] memory) {
+        for (int i = 0; i < memory.length; i++)
+            memory[i] = (char) (state.get() & 0xFF);
+    }
+}
@@ -0,0 +1,86 @@
+package components;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fixed slot event scheduler driven by the CPU clock.
+ * Each component owns one slot holding the absolute cycle of its next event,
+ * and the CPU runs uninterrupted until the earliest deadline.
+ */
+class Scheduler {
+    static final int PPU = 0;
+    static final int TIMER = 1;
+    static final int DMA = 2;
+    static final int SERIAL = 3;
+    private static final int SLOTS = 4;
+
+    interface Event {
+        void fire(long deadline);
+    }
+
+    private final long[] deadlines = new long[SLOTS];
+    private final Event[] events = new Event[SLOTS];
+
+    //earliest deadline, read by the CPU loop after every instruction
+    long next;
+
+    Scheduler() {
+        Arrays.fill(deadlines, Long.MAX_VALUE);
+        next = Long.MAX_VALUE;
+    }
+
+    void register(int slot, Event event) {
+        events[slot] = event;
+    }
+
+    void schedule(int slot, long deadline) {
+        deadlines[slot] = deadline;
+        if (deadline < next)
+            next = deadline;
+    }
+
+    void cancel(int slot) {
+        //next may now be early, which only costs an empty dispatch
+        deadlines[slot] = Long.MAX_VALUE;
+    }
+
+    long getDeadline(int slot) {
+        return deadlines[slot];
+    }
+
+    // makes the CPU leave its loop after the current instruction, e.g. to service an interrupt
+    void requestCheck() {
+        next = Long.MIN_VALUE;
+    }
+
+    void save(ByteBuffer state) {
+        for (long deadline : deadlines)
+            state.putLong(deadline);
+    }
+
+    void restore(ByteBuffer state) {
+        for (int i = 0; i < SLOTS; i++)
+            deadlines[i] = state.getLong();
+        requestCheck();
+    }
+
+    void dispatch(long now) {
+        long earliest;
+        do {
+            for (int i = 0; i < SLOTS; i++) {
+                long deadline = deadlines[i];
+                if (deadline <= now) {
+                    deadlines[i] = Long.MAX_VALUE;
+                    events[i].fire(deadline);
+                }
+            }
+
+            earliest = Long.MAX_VALUE;
+            for (long deadline : deadlines)
+                earliest = Math.min(earliest, deadline);
+        } while (earliest <= now);
+
+        next = earliest;
+    }
+}
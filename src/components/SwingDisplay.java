@@ -0,0 +1,67 @@
+package components;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+
+/**
+ * Window showing the frames rendered by {@link Video}.
+ * Only created outside headless mode, this is the one class that touches AWT.
+ * A Swing timer repaints at the display rate, and each paint takes the latest published frame
+ * on the event dispatch thread, so emulation never waits for Swing.
+ * Backspace is the rewind key, the emulation thread polls whether it is held.
+ */
+class SwingDisplay {
+    private static final int REFRESH_MILLIS = 1000 / 60;
+
+    private final FrameBuffer frames;
+    private final BufferedImage image;
+    private volatile boolean rewindHeld;
+
+    SwingDisplay(String name, FrameBuffer frames) {
+        this.frames = frames;
+        image = new BufferedImage(Video.WIDTH, Video.HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+        SwingUtilities.invokeLater(() -> {
+            JPanel panel = new JPanel() {
+                @Override
+                protected void paintComponent(Graphics g) {
+                    updateGraphics(g);
+                }
+            };
+            panel.setPreferredSize(new Dimension(Video.WIDTH, Video.HEIGHT));
+
+            JFrame f = new JFrame(name);
+            f.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+            f.add(panel);
+            f.addKeyListener(new KeyAdapter() {
+                @Override
+                public void keyPressed(KeyEvent e) {
+                    if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE)
+                        rewindHeld = true;
+                }
+
+                @Override
+                public void keyReleased(KeyEvent e) {
+                    if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE)
+                        rewindHeld = false;
+                }
+            });
+            f.pack();
+            f.setVisible(true);
+
+            new javax.swing.Timer(REFRESH_MILLIS, e -> panel.repaint()).start();
+        });
+    }
+
+    boolean isRewindHeld() {
+        return rewindHeld;
+    }
+
+    private void updateGraphics(Graphics g) {
+        image.setRGB(0, 0, Video.WIDTH, Video.HEIGHT, frames.latest(), 0, Video.WIDTH);
+        g.drawImage(image, 0, 0, null);
+    }
+}
@@ -0,0 +1,113 @@
+package components;
+
+import java.nio.ByteBuffer;
+
+/**
+ * DIV and TIMA, both derived from the master clock.
+ * DIV is computed on read, TIMA only schedules an event for its next overflow.
+ */
+class Timer {
+    //clock cycles per TIMA increment, indexed by the low bits of TAC
+    private static final int[] PERIODS = {1024, 16, 64, 256};
+
+    private final Scheduler scheduler;
+    private final Interrupts interrupts;
+
+    private long divBase; //cycle at which DIV was last reset
+    private int tima; //0xFF05, value at timaBase
+    private long timaBase;
+    private int tma; //0xFF06
+    private int tac; //0xFF07
+
+    Timer(Scheduler scheduler, Interrupts interrupts) {
+        this.scheduler = scheduler;
+        this.interrupts = interrupts;
+        scheduler.register(Scheduler.TIMER, this::overflow);
+    }
+
+    private boolean running() {
+        return (tac & 0x04) != 0;
+    }
+
+    private int period() {
+        return PERIODS[tac & 0x03];
+    }
+
+    int readDiv(long now) {
+        return (int) ((now - divBase) >> 8) & 0xFF;
+    }
+
+    void writeDiv(long now) {
+        divBase = now;
+    }
+
+    int readTima(long now) {
+        sync(now);
+        return tima;
+    }
+
+    void writeTima(long now, int value) {
+        sync(now);
+        tima = value;
+        reschedule();
+    }
+
+    int readTma() {
+        return tma;
+    }
+
+    void writeTma(int value) {
+        tma = value;
+    }
+
+    int readTac() {
+        return 0xF8 | tac;
+    }
+
+    void writeTac(long now, int value) {
+        sync(now);
+        tac = value & 0x07;
+        timaBase = now;
+        reschedule();
+    }
+
+    //the TIMER deadline is part of the scheduler state
+    void save(ByteBuffer state) {
+        state.putLong(divBase).putLong(timaBase);
+        state.put((byte) tima).put((byte) tma).put((byte) tac);
+    }
+
+    void restore(ByteBuffer state) {
+        divBase = state.getLong();
+        timaBase = state.getLong();
+        tima = state.get() & 0xFF;
+        tma = state.get() & 0xFF;
+        tac = state.get() & 0x07;
+    }
+
+    // folds the increments since timaBase into tima, keeping the partial period
+    private void sync(long now) {
+        if (!running()) {
+            timaBase = now;
+            return;
+        }
+
+        long ticks = (now - timaBase) / period();
+        tima = (int) ((tima + ticks) & 0xFF);
+        timaBase += ticks * period();
+    }
+
+    private void reschedule() {
+        if (running())
+            scheduler.schedule(Scheduler.TIMER, timaBase + (long) (0x100 - tima) * period());
+        else
+            scheduler.cancel(Scheduler.TIMER);
+    }
+
+    private void overflow(long deadline) {
+        tima = tma;
+        timaBase = deadline;
+        interrupts.request(Interrupts.TIMER);
+        reschedule();
+    }
+}
@@ -0,0 +1,204 @@
+package components;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records every instruction a machine runs into a file, for diffing runs offline.
+ * Records go into a ring of fixed size records allocated off heap up front, a background thread
+ * drains whatever was published to the file through a FileChannel. The CPU only waits when the
+ * ring is full, records are dropped instead once the tracer is closed or the file failed.
+ * File layout: magic, version and record size as little endian ints, then the records, each
+ * cycle (long), pc, sp (shorts), opcode, the byte after it, registers B C D E H L F A, 2 unused bytes.
+ */
+public class Tracer implements Closeable {
+    private static final int MAGIC = 0x52544247; //"GBTR" read as little endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    static final int RECORD = 24;
+    private static final long IDLE_NANOS = 100_000; //drain thread sleep when the ring is empty
+
+    private static final VarHandle WRITTEN;
+    private static final VarHandle DRAINED;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            WRITTEN = lookup.findVarHandle(Tracer.class, "written", long.class);
+            DRAINED = lookup.findVarHandle(Tracer.class, "drained", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ByteBuffer ring;
+    private final ByteBuffer view; //of ring, owned by the drain thread
+    private final int capacity; //in records, power of two
+    private final FileChannel channel;
+    private final Thread drainer;
+
+    //records are counted from the start, the ring index is the count modulo capacity
+    private volatile long written; //published by the CPU
+    private volatile long drained; //published by the drain thread
+    private long head; //next record the CPU writes, published as written once filled
+    private long limit; //head may not reach it before more is drained
+    private long dropped;
+
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * Starts tracing every instruction cpu runs from now on.
+     * @param records ring capacity, rounded up to a power of two
+     */
+    public Tracer(CPU cpu, Path file, int records) throws IOException {
+        if (records <= 0 || records > (Integer.MAX_VALUE / RECORD + 1) / 2)
+            throw new IllegalArgumentException(String.format("Invalid trace ring size %d", records));
+        capacity = Integer.highestOneBit(Math.max(records - 1, 1)) << 1;
+        ring = ByteBuffer.allocateDirect(capacity * RECORD).order(ByteOrder.LITTLE_ENDIAN);
+        view = ring.duplicate();
+        limit = capacity;
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD).flip();
+        while (header.hasRemaining())
+            channel.write(header);
+
+        drainer = new Thread(this::drain, "trace drain");
+        drainer.setDaemon(true);
+        drainer.start();
+        cpu.setTracer(this);
+    }
+
+    // called by the CPU before executing the instruction at pc
+    void record(long time, int pc, int sp, int opcode, int operand, int[] r) {
+        if (head == limit && !waitForSpace()) {
+            dropped++;
+            return;
+        }
+
+        int at = (int) (head & (capacity - 1)) * RECORD;
+        ring.putLong(at, time);
+        ring.putShort(at + 8, (short) pc);
+        ring.putShort(at + 10, (short) sp);
+        ring.put(at + 12, (byte) opcode);
+        ring.put(at + 13, (byte) operand);
+        for (int i = 0; i < 8; i++)
+            ring.put(at + 14 + i, (byte) r[i]);
+
+        WRITTEN.setRelease(this, ++head);
+    }
+
+    // false if records can no longer be drained
+    private boolean waitForSpace() {
+        while ((limit = (long) DRAINED.getAcquire(this) + capacity) == head) {
+            if (closed || failure != null)
+                return false;
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                boolean stop = closed; //read first, what was published before close is still drained
+                long end = (long) WRITTEN.getAcquire(this);
+                long start = drained;
+                if (end == start) {
+                    if (stop)
+                        return;
+                    LockSupport.parkNanos(IDLE_NANOS);
+                    continue;
+                }
+
+                while (start < end) {
+                    int index = (int) (start & (capacity - 1));
+                    int count = (int) Math.min(end - start, capacity - index);
+                    view.clear().position(index * RECORD).limit((index + count) * RECORD);
+                    while (view.hasRemaining())
+                        channel.write(view);
+                    start += count;
+                }
+                DRAINED.setRelease(this, end);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Writes out everything recorded so far and closes the file, later records are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Prints a trace file one instruction per line.
+     */
+    public static void decode(Path file, PrintStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD * 4096).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.limit(HEADER_SIZE);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) ;
+            buffer.flip();
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+                throw new IOException("Not a trace");
+            int version = buffer.getInt();
+            if (version != VERSION || buffer.getInt() != RECORD)
+                throw new IOException(String.format("Unsupported trace version %d", version));
+
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD)
+                    out.println(format(buffer));
+                buffer.compact();
+            }
+            if (buffer.position() != 0)
+                throw new IOException("Trace ends in the middle of a record");
+        }
+    }
+
+    private static String format(ByteBuffer buffer) {
+        long time = buffer.getLong();
+        int pc = buffer.getShort() & 0xFFFF;
+        int sp = buffer.getShort() & 0xFFFF;
+        int opcode = buffer.get() & 0xFF;
+        int operand = buffer.get() & 0xFF;
+        int[] r = new int[8];
+        for (int i = 0; i < r.length; i++)
+            r[i] = buffer.get() & 0xFF;
+        buffer.getShort();
+
+        return String.format("%12d %04X: %02X %02X  AF=%02X%02X BC=%02X%02X DE=%02X%02X HL=%02X%02X SP=%04X",
+                time, pc, opcode, operand, r[Registers.A], r[Registers.F], r[Registers.B], r[Registers.C],
+                r[Registers.D], r[Registers.E], r[Registers.H], r[Registers.L], sp);
+    }
+}
@@ -1,52 +1,181 @@
 package components;
 
-import javax.swing.*;
-import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Created by Goncalo on 02/10/2017.
  */
 public class Video {
-    Frame f;
-    Graphics2D graphics2D;
-    char scrollX; //0xFF42
-    char scrollY; //0xFF43
+    static final int MODE_HBLANK = 0;
+    static final int MODE_VBLANK = 1;
+    static final int MODE_OAM = 2;
+    static final int MODE_TRANSFER = 3;
+
+    //clock cycles spent in each mode of a visible line, a whole line takes 456
+    private static final int OAM_CYCLES = 80;
+    private static final int TRANSFER_CYCLES = 172;
+    private static final int HBLANK_CYCLES = 204;
+    private static final int LINE_CYCLES = 456;
+
+    static final int WIDTH = 160;
+    static final int HEIGHT = 144;
+    private static final int VISIBLE_LINES = HEIGHT;
+    private static final int LINES = 154;
+    static final int FRAME_CYCLES = LINE_CYCLES * LINES;
+
+    private static final int SPRITES_PER_LINE = 10;
+    private static final int TILES = 384; //0x8000 - 0x97FF
+
+    //ARGB colour of each of the 4 shades, lightest first
+    private static final int[] SHADES = {0xFFFFFFFF, 0xFFAAAAAA, 0xFF555555, 0xFF000000};
+
+    char scrollY; //0xFF42
+    char scrollX; //0xFF43
 
     char[] video; //0x8000 - 0x9FFF
-    char[] oam; //0xFE00 - 0xFE9F
+    char[] oam; //0xFE00 - 0xFE9F, followed by the unusable area up to 0xFEFF
     char lcdc; //0xFF40
-    char stat; //0xFF41
+    char stat; //0xFF41, only the interrupt select bits, mode and coincidence are computed
+    char ly; //0xFF44
+    char lyc; //0xFF45
     char bgp; //0xFF47
     char obp0, obp1; //0xFF48, 0xFF49
+    char wy, wx; //0xFF4A, 0xFF4B
+    int mode;
+
+    //palette resolved pixels, row by row, of the frame being rendered
+    final FrameBuffer frames = new FrameBuffer();
+    int[] frame = frames.back();
+
+    //1 renders every frame, N every Nth and 0 none, skipped frames still keep LY and STAT timing
+    private int renderInterval = 1;
+    private int skippedFrames;
+    private boolean rendering = true; //whether the current frame is rendered
+
+    //per line scratch space, allocated once
+    private final int[] lineColors = new int[WIDTH]; //background and window colour numbers before the palette
+    private final int[] backgroundPalette = new int[4];
+    private final int[] objectPalette0 = new int[4];
+    private final int[] objectPalette1 = new int[4];
+    private final int[] lineSprites = new int[SPRITES_PER_LINE];
+    private int windowLine; //the window only advances on lines where it was drawn
+
+    //colour numbers of every tile, 8x8 bytes each, decoded again on first use after a write
+    private final byte[] tileCache = new byte[TILES * 64];
+    private final boolean[] staleTiles = new boolean[TILES];
 
-    public Video(String name) {
-        video = new char[8096];
-        oam = new char[160];
+    private final Scheduler scheduler;
+    private final Interrupts interrupts;
+    Metrics metrics; //told about every frame if attached
+
+    /**
+     * Video only renders into {@link #frame} and publishes finished frames to {@link #frames},
+     * showing them is left to a {@link SwingDisplay}, so no AWT class is loaded when running headless.
+     */
+    public Video(Scheduler scheduler, Interrupts interrupts) {
+        this.scheduler = scheduler;
+        this.interrupts = interrupts;
+        scheduler.register(Scheduler.PPU, this::nextMode);
+
+        video = new char[0x2000];
+        oam = new char[0x100];
         lcdc = 0;
         stat = 0;
+        mode = MODE_HBLANK;
+    }
 
-        f = new JFrame(name);
-        f.setSize(160, 144);
-        f.setVisible(true);
+    char readStat() {
+        return (char) (0x80 | (stat & 0x78) | (ly == lyc ? 0x04 : 0) | mode);
+    }
 
-        new Thread(() -> {
-            if (displayEnable()) {
-                updateGraphics();
-            } else {
-                disableDisplay();
-            }
-            f.update(graphics2D);
-            try {
-                wait((long) (1000.0/60));
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }).start();
+    void writeStat(char value) {
+        stat = (char) (value & 0x78);
+    }
+
+    void writeLcdc(char value, long now) {
+        boolean wasEnabled = displayEnable();
+        lcdc = value;
+
+        if (!wasEnabled && displayEnable()) {
+            ly = 0;
+            windowLine = 0;
+            enterMode(MODE_OAM);
+            scheduler.schedule(Scheduler.PPU, now + OAM_CYCLES);
+        } else if (wasEnabled && !displayEnable()) {
+            ly = 0;
+            mode = MODE_HBLANK;
+            scheduler.cancel(Scheduler.PPU);
+
+            //a disabled display shows white
+            Arrays.fill(frame, SHADES[0]);
+            frame = frames.publish();
+        }
+    }
+
+    void writeLyc(char value) {
+        lyc = value;
+        compareLine();
     }
 
-    private void disableDisplay() {
-        graphics2D.setColor(Color.WHITE);
-        graphics2D.drawRect(0, 0, 160, 144);
+    // fired by the scheduler at the end of every mode
+    private void nextMode(long deadline) {
+        switch (mode) {
+            case MODE_OAM:
+                enterMode(MODE_TRANSFER);
+                scheduler.schedule(Scheduler.PPU, deadline + TRANSFER_CYCLES);
+                break;
+            case MODE_TRANSFER:
+                if (rendering)
+                    renderLine();
+                enterMode(MODE_HBLANK);
+                scheduler.schedule(Scheduler.PPU, deadline + HBLANK_CYCLES);
+                break;
+            case MODE_HBLANK:
+                ly++;
+                if (ly == VISIBLE_LINES) {
+                    if (rendering)
+                        frame = frames.publish();
+                    if (metrics != null)
+                        metrics.frame(deadline, rendering);
+                    rendering = renderInterval != 0 && ++skippedFrames >= renderInterval;
+                    if (rendering)
+                        skippedFrames = 0;
+                    enterMode(MODE_VBLANK);
+                    interrupts.request(Interrupts.VBLANK);
+                    scheduler.schedule(Scheduler.PPU, deadline + LINE_CYCLES);
+                } else {
+                    enterMode(MODE_OAM);
+                    scheduler.schedule(Scheduler.PPU, deadline + OAM_CYCLES);
+                }
+                compareLine();
+                break;
+            case MODE_VBLANK:
+                ly++;
+                if (ly == LINES) {
+                    ly = 0;
+                    windowLine = 0;
+                    enterMode(MODE_OAM);
+                    scheduler.schedule(Scheduler.PPU, deadline + OAM_CYCLES);
+                } else {
+                    scheduler.schedule(Scheduler.PPU, deadline + LINE_CYCLES);
+                }
+                compareLine();
+                break;
+        }
+    }
+
+    private void enterMode(int mode) {
+        this.mode = mode;
+
+        //STAT bits 3, 4 and 5 select the interrupt for entering hblank, vblank and oam
+        if (mode != MODE_TRANSFER && getBit(stat, 3 + mode))
+            interrupts.request(Interrupts.LCD_STAT);
+    }
+
+    private void compareLine() {
+        if (ly == lyc && getBit(stat, 6))
+            interrupts.request(Interrupts.LCD_STAT);
     }
 
     private boolean getBit(char c, int i) {
@@ -73,19 +202,198 @@ public class Video {
         return getBit(lcdc, 2);
     }
 
+    private boolean backgroundEnable() {
+        return getBit(lcdc, 0);
+    }
+
+    private boolean spriteEnable() {
+        return getBit(lcdc, 1);
+    }
+
+    private boolean windowEnable() {
+        return getBit(lcdc, 5);
+    }
+
+    //each colour number takes two bits of the palette, colour 0 in the lowest
     private int getBackgroundShade(int i) {
-        return (getBit(bgp, i * 2)?2:0) + (getBit(bgp, i * 2 + 1)?1:0);
+        return (bgp >> (i * 2)) & 3;
     }
 
     private int getObject0Shade(int i) {
-        return (getBit(obp0, i * 2)?2:0) + (getBit(obp0, i * 2 + 1)?1:0);
+        return (obp0 >> (i * 2)) & 3;
     }
 
     private int getObject1Shade(int i) {
-        return (getBit(obp1, i * 2)?2:0) + (getBit(obp1, i * 2 + 1)?1:0);
+        return (obp1 >> (i * 2)) & 3;
     }
 
-    private void updateGraphics() {
+    void setRenderInterval(int renderInterval) {
+        this.renderInterval = renderInterval;
+        skippedFrames = 0;
+        rendering = renderInterval != 0;
+    }
+
+    //the PPU deadline is part of the scheduler state, frames are not saved
+    void save(ByteBuffer state) {
+        SaveState.put(state, video);
+        SaveState.put(state, oam);
+        state.put((byte) lcdc).put((byte) stat).put((byte) ly).put((byte) lyc);
+        state.put((byte) scrollY).put((byte) scrollX).put((byte) wy).put((byte) wx);
+        state.put((byte) bgp).put((byte) obp0).put((byte) obp1);
+        state.put((byte) mode).put((byte) windowLine);
+    }
 
+    void restore(ByteBuffer state) {
+        SaveState.get(state, video);
+        SaveState.get(state, oam);
+        lcdc = (char) (state.get() & 0xFF);
+        stat = (char) (state.get() & 0xFF);
+        ly = (char) (state.get() & 0xFF);
+        lyc = (char) (state.get() & 0xFF);
+        scrollY = (char) (state.get() & 0xFF);
+        scrollX = (char) (state.get() & 0xFF);
+        wy = (char) (state.get() & 0xFF);
+        wx = (char) (state.get() & 0xFF);
+        bgp = (char) (state.get() & 0xFF);
+        obp0 = (char) (state.get() & 0xFF);
+        obp1 = (char) (state.get() & 0xFF);
+        mode = state.get();
+        windowLine = state.get() & 0xFF;
+        Arrays.fill(staleTiles, true);
+    }
+
+    void writeTileData(int address, char value) {
+        video[address] = value;
+        staleTiles[address >> 4] = true;
+    }
+
+    //background and window tile numbers are signed around 0x9000 unless LCDC bit 4 is set
+    private int tileNumber(int tile) {
+        if (baseTileData() == 0x8000)
+            return tile;
+
+        return 0x100 + (byte) tile;
+    }
+
+    //offset into tileCache of row y of a tile
+    private int tileRow(int tile, int y) {
+        if (staleTiles[tile])
+            decodeTile(tile);
+
+        return tile * 64 + y * 8;
+    }
+
+    private void decodeTile(int tile) {
+        int address = tile * 16;
+        int cached = tile * 64;
+
+        for (int y = 0; y < 8; y++) {
+            int low = video[address + y * 2];
+            int high = video[address + y * 2 + 1];
+            for (int bit = 7; bit >= 0; bit--)
+                tileCache[cached++] = (byte) ((((high >> bit) & 1) << 1) | ((low >> bit) & 1));
+        }
+
+        staleTiles[tile] = false;
+    }
+
+    private void renderLine() {
+        for (int i = 0; i < 4; i++) {
+            backgroundPalette[i] = SHADES[getBackgroundShade(i)];
+            objectPalette0[i] = SHADES[getObject0Shade(i)];
+            objectPalette1[i] = SHADES[getObject1Shade(i)];
+        }
+
+        if (backgroundEnable()) {
+            renderBackground();
+            if (windowEnable() && ly >= wy && wx < WIDTH + 7)
+                renderWindow();
+        } else {
+            Arrays.fill(lineColors, 0);
+        }
+
+        int offset = ly * WIDTH;
+        for (int x = 0; x < WIDTH; x++)
+            frame[offset + x] = backgroundPalette[lineColors[x]];
+
+        if (spriteEnable())
+            renderSprites(offset);
+    }
+
+    private void renderBackground() {
+        int y = (ly + scrollY) & 0xFF;
+        int row = baseBackgroundTileMap() - 0x8000 + (y >> 3) * 32;
+
+        int x = 0;
+        while (x < WIDTH) {
+            int backgroundX = (x + scrollX) & 0xFF;
+            int cached = tileRow(tileNumber(video[row + (backgroundX >> 3)]), y & 7);
+            for (int column = backgroundX & 7; column < 8 && x < WIDTH; column++)
+                lineColors[x++] = tileCache[cached + column];
+        }
+    }
+
+    private void renderWindow() {
+        int row = baseWindowTileMap() - 0x8000 + (windowLine >> 3) * 32;
+        int start = wx - 7;
+
+        int x = Math.max(start, 0);
+        while (x < WIDTH) {
+            int windowX = x - start;
+            int cached = tileRow(tileNumber(video[row + (windowX >> 3)]), windowLine & 7);
+            for (int column = windowX & 7; column < 8 && x < WIDTH; column++)
+                lineColors[x++] = tileCache[cached + column];
+        }
+
+        windowLine++;
+    }
+
+    private void renderSprites(int offset) {
+        int height = largeSpriteSize() ? 16 : 8;
+
+        //the first 10 sprites in OAM that cover this line, ordered by x so the first one drawn wins
+        int count = 0;
+        for (int i = 0; i < 0xA0 && count < SPRITES_PER_LINE; i += 4) {
+            int y = ly - (oam[i] - 16);
+            if (y < 0 || y >= height)
+                continue;
+
+            int j = count++;
+            while (j > 0 && oam[lineSprites[j - 1] + 1] > oam[i + 1]) {
+                lineSprites[j] = lineSprites[j - 1];
+                j--;
+            }
+            lineSprites[j] = i;
+        }
+
+        //drawn from lowest to highest priority so the highest ends on top
+        for (int s = count - 1; s >= 0; s--) {
+            int i = lineSprites[s];
+            int spriteX = oam[i + 1] - 8;
+            int tile = oam[i + 2];
+            int attributes = oam[i + 3];
+
+            int y = ly - (oam[i] - 16);
+            if (getBit((char) attributes, 6))
+                y = height - 1 - y;
+            if (height == 16)
+                tile &= 0xFE;
+
+            int cached = tileRow(tile + (y >> 3), y & 7); //sprites always use 0x8000 addressing
+            int[] palette = getBit((char) attributes, 4) ? objectPalette1 : objectPalette0;
+            boolean behindBackground = getBit((char) attributes, 7);
+
+            for (int x = Math.max(spriteX, 0); x < Math.min(spriteX + 8, WIDTH); x++) {
+                int tileX = x - spriteX;
+                if (getBit((char) attributes, 5))
+                    tileX = 7 - tileX;
+
+                int colour = tileCache[cached + tileX];
+                if (colour == 0 || (behindBackground && lineColors[x] != 0))
+                    continue;
+
+                frame[offset + x] = palette[colour];
+            }
+        }
     }
 }
@@ -0,0 +1,131 @@
+package components;
+
+import org.junit.jupiter.api.Test;
+
+import static components.Registers.*;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Every table driven operation of Registers and LazyRegisters, on every accumulator, operand and incoming
+ * flags, against the flag expressions the CPU computed before the tables. Results are F << 8 | result.
+ */
+class AluTablesTest {
+    private static int add8(int a, int value) {
+        int r = a + value;
+        return (zero(r & 0xFF) | ((a & 0x0F) + (value & 0x0F) > 0x0F ? HALF_CARRY : 0) | (r > 0xFF ? CARRY : 0)) << 8
+                | (r & 0xFF);
+    }
+
+    private static int adc8(int a, int value, int carry) {
+        int r = a + value + carry;
+        return (zero(r & 0xFF) | ((a & 0x0F) + (value & 0x0F) + carry > 0x0F ? HALF_CARRY : 0) | (r > 0xFF ? CARRY : 0)) << 8
+                | (r & 0xFF);
+    }
+
+    private static int sub8(int a, int value) {
+        int r = a - value;
+        return (zero(r & 0xFF) | SUBTRACT | ((a & 0x0F) < (value & 0x0F) ? HALF_CARRY : 0) | (r < 0 ? CARRY : 0)) << 8
+                | (r & 0xFF);
+    }
+
+    private static int sbc8(int a, int value, int carry) {
+        int r = a - value - carry;
+        return (zero(r & 0xFF) | SUBTRACT | ((a & 0x0F) - (value & 0x0F) - carry < 0 ? HALF_CARRY : 0) | (r < 0 ? CARRY : 0)) << 8
+                | (r & 0xFF);
+    }
+
+    private static int cp8(int a, int value) {
+        int r = a - value;
+        return (zero(r & 0xFF) | SUBTRACT | ((a & 0x0F) < (value & 0x0F) ? HALF_CARRY : 0) | (r < 0 ? CARRY : 0)) << 8 | a;
+    }
+
+    private static int increment(int value, int f) {
+        value = (value + 1) & 0xFF;
+        return (zero(value) | ((value & 0x0F) == 0 ? HALF_CARRY : 0) | (f & CARRY)) << 8 | value;
+    }
+
+    private static int decrement(int value, int f) {
+        value = (value - 1) & 0xFF;
+        return (zero(value) | SUBTRACT | ((value & 0x0F) == 0x0F ? HALF_CARRY : 0) | (f & CARRY)) << 8 | value;
+    }
+
+    private static int decimalAdjust(int a, int f) {
+        boolean subtract = (f & SUBTRACT) != 0;
+        int correction = 0;
+        int carry = f & CARRY;
+
+        if ((f & HALF_CARRY) != 0 || (!subtract && (a & 0x0F) > 0x09))
+            correction |= 0x06;
+
+        if (carry != 0 || (!subtract && a > 0x99)) {
+            correction |= 0x60;
+            carry = CARRY;
+        }
+
+        a = (subtract ? a - correction : a + correction) & 0xFF;
+        return (zero(a) | (f & SUBTRACT) | carry) << 8 | a;
+    }
+
+    @Test
+    void registers() {
+        check(new Registers());
+    }
+
+    @Test
+    void lazyRegisters() {
+        check(new LazyRegisters());
+    }
+
+    private static void check(Registers regs) {
+        for (int f = 0; f < 0x100; f += 0x10) {
+            int carry = (f & CARRY) >> 4;
+            for (int a = 0; a < 256; a++) {
+                for (int value = 0; value < 256; value++) {
+                    regs.r[A] = a;
+                    regs.setFlags(f);
+                    regs.add(value, 0);
+                    check("ADD", a, value, f, add8(a, value), regs, regs.r[A]);
+
+                    regs.r[A] = a;
+                    regs.setFlags(f);
+                    regs.add(value, carry);
+                    check("ADC", a, value, f, adc8(a, value, carry), regs, regs.r[A]);
+
+                    regs.r[A] = a;
+                    regs.setFlags(f);
+                    regs.subtract(value, 0);
+                    check("SUB", a, value, f, sub8(a, value), regs, regs.r[A]);
+
+                    regs.r[A] = a;
+                    regs.setFlags(f);
+                    regs.subtract(value, carry);
+                    check("SBC", a, value, f, sbc8(a, value, carry), regs, regs.r[A]);
+
+                    regs.r[A] = a;
+                    regs.setFlags(f);
+                    regs.compare(value);
+                    check("CP", a, value, f, cp8(a, value), regs, regs.r[A]);
+                }
+
+                regs.setFlags(f);
+                check("INC", a, 0, f, increment(a, f), regs, regs.increment(a));
+
+                regs.setFlags(f);
+                check("DEC", a, 0, f, decrement(a, f), regs, regs.decrement(a));
+
+                regs.r[A] = a;
+                regs.setFlags(f);
+                regs.decimalAdjust();
+                check("DAA", a, 0, f, decimalAdjust(a, f), regs, regs.r[A]);
+            }
+        }
+    }
+
+    // Z and C are checked through the getters first, as conditional jumps read them before anything else
+    private static void check(String op, int a, int value, int f, int expected, Registers regs, int result) {
+        int observed = (regs.getZero() ? ZERO : 0) | (regs.getCarry() ? CARRY : 0);
+        int actual = regs.flags() << 8 | result;
+        if (expected != actual || observed != (expected >> 8 & (ZERO | CARRY)))
+            fail(String.format("%s A=%02X operand=%02X F=%02X gives %04X instead of %04X", op, a, value, f, actual, expected));
+    }
+}
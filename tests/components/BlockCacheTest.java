@@ -0,0 +1,97 @@
+package components;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Translated blocks have to follow code rewritten in ram and code switched in by bank, TIERED must end
+ * in the same state as the interpreters.
+ */
+class BlockCacheTest {
+    private static final int FRAMES = 120;
+
+    // copies INC B, INC D, RET to base, then calls it in a loop while flipping its opcodes through edit,
+    // which is either base itself or its echo
+    private static TestRom selfModifying(int base, int edit) {
+        return new TestRom().program(
+                0x31, 0xFE, 0xFF,                   //LD SP, 0xFFFE
+                0x21, base & 0xFF, base >> 8,       //LD HL, base
+                0x36, 0x04, 0x23,                   //LD (HL+), INC B
+                0x36, 0x14, 0x23,                   //LD (HL+), INC D
+                0x36, 0xC9,                         //LD (HL), RET
+                0x0E, 0x40,                         //loop: LD C, 0x40
+                0xCD, base & 0xFF, base >> 8,       //CALL base
+                0x0D,                               //DEC C
+                0x20, 0xFA,                         //JR NZ, -6
+                0xFA, edit & 0xFF, edit >> 8,       //LD A, (edit)
+                0xEE, 0x11,                         //XOR 0x11, INC B <-> INC D
+                0xEA, edit & 0xFF, edit >> 8,       //LD (edit), A
+                0xFA, (base + 1) & 0xFF, (base + 1) >> 8,
+                0xEE, 0x01,                         //XOR 0x01, INC D <-> DEC D
+                0xEA, (base + 1) & 0xFF, (base + 1) >> 8,
+                0xC3, 0x5E, 0x01);                  //JP loop
+    }
+
+    private static void assertSameOnEveryEngine(TestRom rom) throws Exception {
+        long expected = 0;
+        for (CPU.Dispatch dispatch : CPU.Dispatch.values()) {
+            CPU cpu = rom.machine(dispatch);
+            TestRom.runFrames(cpu, FRAMES);
+            if (dispatch == CPU.Dispatch.SWITCH)
+                expected = TestRom.hash(cpu);
+            else
+                assertEquals(expected, TestRom.hash(cpu), dispatch.name());
+        }
+    }
+
+    @Test
+    void codeRewrittenInWorkRam() throws Exception {
+        assertSameOnEveryEngine(selfModifying(0xC000, 0xC000));
+    }
+
+    @Test
+    void codeRewrittenInHighRam() throws Exception {
+        assertSameOnEveryEngine(selfModifying(0xFF80, 0xFF80));
+    }
+
+    @Test
+    void codeRunFromEchoRam() throws Exception {
+        assertSameOnEveryEngine(selfModifying(0xE010, 0xE010));
+    }
+
+    @Test
+    void codeRewrittenThroughEchoRam() throws Exception {
+        assertSameOnEveryEngine(selfModifying(0xC100, 0xE100));
+    }
+
+    // bank 1 and bank 2 hold different code at 0x4000, called in turn, each counted into work ram
+    @Test
+    void blocksAreKeyedByBank() throws Exception {
+        TestRom rom = new TestRom(0x01, 1, 0)
+                .at(Cartridge.BANK_SIZE, 0x04, 0xC9)      //bank 1: INC B, RET
+                .at(2 * Cartridge.BANK_SIZE, 0x0C, 0xC9)  //bank 2: INC C, RET
+                .program(
+                        0x31, 0xFE, 0xFF,   //LD SP, 0xFFFE
+                        0x3E, 0x01,         //loop: LD A, 1
+                        0xEA, 0x00, 0x20,   //LD (0x2000), A
+                        0xCD, 0x00, 0x40,   //CALL 0x4000
+                        0x3E, 0x02,         //LD A, 2
+                        0xEA, 0x00, 0x20,   //LD (0x2000), A
+                        0xCD, 0x00, 0x40,   //CALL 0x4000
+                        0x78,               //LD A, B
+                        0xEA, 0x00, 0xC0,   //LD (0xC000), A
+                        0x79,               //LD A, C
+                        0xEA, 0x01, 0xC0,   //LD (0xC001), A
+                        0x18, 0xE6);        //JR loop
+
+        assertSameOnEveryEngine(rom);
+
+        Memory memory = rom.memory();
+        CPU cpu = new CPU(memory, CPU.Dispatch.TIERED);
+        TestRom.runFrames(cpu, FRAMES);
+        assertNotEquals(0, memory.read((char) 0xC001));
+        assertEquals(memory.read((char) 0xC000), memory.read((char) 0xC001));
+    }
+}
@@ -0,0 +1,241 @@
+package components;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Bank switching of MBC1, MBC3 and MBC5, the MBC3 clock, and banks kept across save states.
+ */
+class CartridgeTest {
+    private static final long SECOND = Pacer.CLOCK_RATE;
+
+    private long now; //master clock seen by the cartridge
+
+    @BeforeEach
+    void reset() {
+        now = 0;
+    }
+
+    private Memory memory(TestRom rom) throws IOException {
+        Memory memory = rom.memory();
+        memory.setClock(() -> now);
+        return memory;
+    }
+
+    private static void write(Memory memory, int address, int value) {
+        memory.write((char) address, (char) value);
+    }
+
+    private static int read(Memory memory, int address) {
+        return memory.read((char) address);
+    }
+
+    // 64 banks of rom, 4 banks of ram
+    private static TestRom mbc1() {
+        return new TestRom(0x03, 5, 3).markBanks();
+    }
+
+    @Test
+    void mbc1RomBanks() throws Exception {
+        Memory memory = memory(mbc1());
+        assertEquals(1, TestRom.bank(memory, 0x4000));
+
+        write(memory, 0x2000, 0);
+        assertEquals(1, TestRom.bank(memory, 0x4000)); //bank 0 reads as 1
+
+        write(memory, 0x2000, 5);
+        write(memory, 0x4000, 1);
+        assertEquals(0x25, TestRom.bank(memory, 0x4000));
+
+        write(memory, 0x2000, 0);
+        assertEquals(0x21, TestRom.bank(memory, 0x4000));
+        assertEquals(0, TestRom.bank(memory, 0x0000));
+
+        write(memory, 0x6000, 1); //mode 1 moves the low bank too
+        assertEquals(0x20, TestRom.bank(memory, 0x0000));
+    }
+
+    @Test
+    void mbc1RamBanks() throws Exception {
+        Memory memory = memory(mbc1());
+        write(memory, 0x6000, 1);
+        assertEquals(0xFF, read(memory, 0xA000)); //disabled
+
+        write(memory, 0x0000, 0x0A);
+        write(memory, 0x4000, 1);
+        write(memory, 0xA000, 0x42);
+        assertEquals(0x42, read(memory, 0xA000));
+
+        write(memory, 0x4000, 2);
+        assertEquals(0, read(memory, 0xA000));
+        write(memory, 0x4000, 1);
+        assertEquals(0x42, read(memory, 0xA000));
+
+        write(memory, 0x0000, 0x00);
+        assertEquals(0xFF, read(memory, 0xA000));
+        write(memory, 0xA000, 0x11); //dropped while disabled
+        write(memory, 0x0000, 0x0A);
+        assertEquals(0x42, read(memory, 0xA000));
+    }
+
+    @Test
+    void banksSurviveSaveStates() throws Exception {
+        Memory memory = memory(mbc1());
+        write(memory, 0x0000, 0x0A);
+        write(memory, 0x2000, 0);
+        write(memory, 0x4000, 1);
+        write(memory, 0x6000, 1);
+        write(memory, 0xA000, 0x42);
+        SaveState state = new SaveState(new CPU(memory));
+        state.capture();
+
+        write(memory, 0x6000, 0);
+        write(memory, 0x2000, 3);
+        write(memory, 0x4000, 0);
+        write(memory, 0x0000, 0x00);
+        assertEquals(3, TestRom.bank(memory, 0x4000));
+
+        state.restore();
+        assertEquals(0x21, TestRom.bank(memory, 0x4000));
+        assertEquals(0x20, TestRom.bank(memory, 0x0000));
+        assertEquals(0x42, read(memory, 0xA000));
+    }
+
+    // the boot rom stays over 0x0000 - 0x00FF whatever low bank MBC1 mode 1 selects
+    @Test
+    void restoreWhileBooting() throws Exception {
+        Memory memory = new Memory(new Cartridge(mbc1().write().toString()), true);
+        write(memory, 0x6000, 1);
+        write(memory, 0x4000, 1);
+        int[] boot = new int[0x100];
+        for (int i = 0; i < boot.length; i++)
+            boot[i] = read(memory, i);
+
+        SaveState state = new SaveState(new CPU(memory));
+        state.capture();
+        state.restore();
+        for (int i = 0; i < boot.length; i++)
+            assertEquals(boot[i], read(memory, i));
+        assertEquals(0x20, TestRom.bank(memory, 0x0000));
+
+        write(memory, 0xFF50, 1);
+        assertEquals(0x20, read(memory, 0x0200));
+    }
+
+    @Test
+    void mbc5() throws Exception {
+        Memory memory = memory(new TestRom(0x1B, 8, 4).markBanks());
+        write(memory, 0x2000, 0);
+        assertEquals(0, TestRom.bank(memory, 0x4000)); //bank 0 is reachable
+
+        write(memory, 0x3000, 1);
+        write(memory, 0x2000, 0x23);
+        assertEquals(0x123, TestRom.bank(memory, 0x4000));
+
+        write(memory, 0x0000, 0x0A);
+        write(memory, 0x4000, 0x0F);
+        write(memory, 0xBFFF, 7);
+        write(memory, 0x4000, 0);
+        assertEquals(0, read(memory, 0xBFFF));
+        write(memory, 0x4000, 0x0F);
+        assertEquals(7, read(memory, 0xBFFF));
+    }
+
+    @Test
+    void smallRamRepeats() throws Exception {
+        Memory memory = memory(new TestRom(0x1B, 1, 1)); //2KB
+        write(memory, 0x0000, 0x0A);
+        write(memory, 0xA001, 0x42);
+        assertEquals(0x42, read(memory, 0xA801));
+    }
+
+    @Test
+    void mbc3RomBanks() throws Exception {
+        Memory memory = memory(new TestRom(0x10, 6, 3).markBanks());
+        write(memory, 0x2000, 0x7F);
+        assertEquals(0x7F, TestRom.bank(memory, 0x4000));
+        write(memory, 0x2000, 0);
+        assertEquals(1, TestRom.bank(memory, 0x4000));
+
+        write(memory, 0x0000, 0x0A);
+        write(memory, 0x4000, 0x00);
+        write(memory, 0xA000, 0x99);
+        assertEquals(0x99, read(memory, 0xA000));
+    }
+
+    private static void latch(Memory memory) {
+        write(memory, 0x6000, 0);
+        write(memory, 0x6000, 1);
+    }
+
+    private static int clock(Memory memory, int register) {
+        write(memory, 0x4000, register);
+        return read(memory, 0xA000);
+    }
+
+    @Test
+    void mbc3Clock() throws Exception {
+        Memory memory = memory(new TestRom(0x10, 6, 3));
+        write(memory, 0x0000, 0x0A);
+
+        now += 3723 * SECOND + 5; //1:02:03
+        assertEquals(0, clock(memory, 0x08)); //reads see the last latch
+
+        latch(memory);
+        assertEquals(3, clock(memory, 0x08));
+        assertEquals(2, clock(memory, 0x09));
+        assertEquals(1, clock(memory, 0x0A));
+
+        write(memory, 0x4000, 0x0C);
+        write(memory, 0xA000, 0x40); //halt
+        now += 100 * SECOND;
+        latch(memory);
+        assertEquals(3, clock(memory, 0x08));
+        assertEquals(0x40, clock(memory, 0x0C));
+
+        write(memory, 0xA000, 0x01); //run again, day counter bit 8 set
+        now += 10 * SECOND;
+        latch(memory);
+        assertEquals(0x01, clock(memory, 0x0C));
+        assertEquals(13, clock(memory, 0x08));
+    }
+
+    // the clock goes on from where the last run stored it, the ram is kept next to it
+    @Test
+    void clockKeptInSaveFile() throws Exception {
+        String file = new TestRom(0x10, 6, 3).write().toString();
+        Memory memory = new Memory(new Cartridge(file, true), true);
+        memory.setClock(() -> now);
+        write(memory, 0x0000, 0x0A);
+        write(memory, 0xA000, 0x5A);
+        now += 3723 * SECOND;
+        latch(memory);
+        now += 3 * SECOND;
+        memory.flush();
+
+        now = 0;
+        memory = new Memory(new Cartridge(file, true), true);
+        memory.setClock(() -> now);
+        write(memory, 0x0000, 0x0A);
+        assertEquals(3, clock(memory, 0x08)); //latched before the flush
+        now += 10 * SECOND;
+        latch(memory);
+        assertEquals(16, clock(memory, 0x08));
+        assertEquals(2, clock(memory, 0x09));
+        assertEquals(1, clock(memory, 0x0A));
+
+        write(memory, 0x4000, 0x00);
+        assertEquals(0x5A, read(memory, 0xA000));
+    }
+
+    @Test
+    void unsupportedControllers() throws Exception {
+        String mbc2 = new TestRom(0x05, 1, 0).write().toString();
+        assertThrows(IOException.class, () -> new Cartridge(mbc2));
+    }
+}
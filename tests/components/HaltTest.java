@@ -0,0 +1,133 @@
+package components;
+
+import Exceptions.InvalidInstructionException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HALT and STOP skip straight to the event that wakes the CPU, and the HALT bug runs the next byte twice.
+ */
+class HaltTest {
+    // display on, only the vblank interrupt enabled
+    private static final int[] SETUP = {
+            0x31, 0xFE, 0xFF,   //LD SP, 0xFFFE
+            0x3E, 0x91,         //LD A, 0x91
+            0xE0, 0x40,         //LDH (0x40), A
+            0x3E, 0x01,         //LD A, 1
+            0xE0, 0xFF,         //LDH (0xFF), A
+    };
+
+    private static int[] concat(int[] first, int... second) {
+        int[] all = new int[first.length + second.length];
+        System.arraycopy(first, 0, all, 0, first.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+
+    // wakes once per frame, the handler counts into C and the loop counts wake ups into 0xC000
+    @Test
+    void haltWakesOnVblank() throws Exception {
+        TestRom rom = new TestRom()
+                .at(0x0040, 0x0C, 0xD9) //INC C, RETI
+                .program(concat(SETUP,
+                        0xFB,               //EI
+                        0x76,               //loop: HALT
+                        0x04,               //INC B
+                        0x78,               //LD A, B
+                        0xEA, 0x00, 0xC0,   //LD (0xC000), A
+                        0x18, 0xF8));       //JR loop
+
+        long expected = 0;
+        for (CPU.Dispatch dispatch : CPU.Dispatch.values()) {
+            Memory memory = rom.memory();
+            CPU cpu = new CPU(memory, dispatch);
+            TestRom.runFrames(cpu, 60);
+            int wakes = memory.read((char) 0xC000);
+            assertTrue(wakes >= 59 && wakes <= 61, dispatch + " woke " + wakes + " times");
+
+            if (dispatch == CPU.Dispatch.SWITCH)
+                expected = TestRom.hash(cpu);
+            else
+                assertEquals(expected, TestRom.hash(cpu), dispatch.name());
+        }
+    }
+
+    // HALT with interrupts disabled and one already pending does not halt, INC A runs twice
+    @Test
+    void haltBugRepeatsTheNextByte() throws Exception {
+        TestRom rom = new TestRom().program(concat(SETUP,
+                0xF3,               //DI
+                0xF0, 0x0F,         //wait: LDH A, (0x0F)
+                0xE6, 0x01,         //AND 1
+                0x28, 0xFA,         //JR Z, wait
+                0x3E, 0x00,         //LD A, 0
+                0x76,               //HALT
+                0x3C,               //INC A
+                0xEA, 0x00, 0xC0,   //LD (0xC000), A
+                0xDD));             //invalid, ends the run
+
+        for (CPU.Dispatch dispatch : CPU.Dispatch.values()) {
+            Memory memory = rom.memory();
+            CPU cpu = new CPU(memory, dispatch);
+            assertThrows(InvalidInstructionException.class, cpu::run);
+            assertEquals(2, memory.read((char) 0xC000), dispatch.name());
+        }
+    }
+
+    // with the display and the timer off nothing is scheduled, run() gives up on HALT instead of spinning
+    // and carries on once a button is pressed
+    @Test
+    void haltWithNothingScheduled() throws Exception {
+        TestRom rom = new TestRom().program(
+                0x31, 0xFE, 0xFF,   //LD SP, 0xFFFE
+                0xAF,               //XOR A
+                0xE0, 0x40,         //LDH (0x40), A
+                0xE0, 0x07,         //LDH (0x07), A
+                0x3E, 0x10,         //LD A, 0x10
+                0xE0, 0xFF,         //LDH (0xFF), A
+                0x76,               //HALT
+                0x3E, 0x01,         //LD A, 1
+                0xEA, 0x00, 0xC0,   //LD (0xC000), A
+                0xDD);              //invalid, ends the run
+
+        for (CPU.Dispatch dispatch : CPU.Dispatch.values()) {
+            Memory memory = rom.memory();
+            CPU cpu = new CPU(memory, dispatch);
+            assertTimeoutPreemptively(Duration.ofSeconds(10), cpu::run, dispatch.name());
+            assertEquals(0, memory.read((char) 0xC000), dispatch.name());
+
+            memory.joypad.setPressed(Joypad.A);
+            assertThrows(InvalidInstructionException.class, cpu::run);
+            assertEquals(1, memory.read((char) 0xC000), dispatch.name());
+        }
+    }
+
+    // STOP waits for a button press however long it takes, then runs on
+    @Test
+    void stopWaitsForJoypad() throws Exception {
+        TestRom rom = new TestRom().program(
+                0x31, 0xFE, 0xFF,   //LD SP, 0xFFFE
+                0x10, 0x00,         //STOP
+                0x3E, 0x01,         //LD A, 1
+                0xEA, 0x00, 0xC0,   //LD (0xC000), A
+                0x18, 0xFE);        //JR self
+
+        for (CPU.Dispatch dispatch : CPU.Dispatch.values()) {
+            Memory memory = rom.memory();
+            CPU cpu = new CPU(memory, dispatch);
+            TestRom.runFrames(cpu, 600);
+            assertEquals(600L * Video.FRAME_CYCLES, cpu.getTime());
+            assertEquals(0, memory.read((char) 0xC000), dispatch.name());
+
+            memory.joypad.setPressed(1);
+            TestRom.runFrames(cpu, 1);
+            assertEquals(1, memory.read((char) 0xC000), dispatch.name());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package components;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stepping back restores exactly what was recorded.
+ */
+class RewindTest {
+    private static void write(Memory memory, int address, int value) {
+        memory.write((char) address, (char) value);
+    }
+
+    // 128KB of cartridge ram puts runs of zeros and of literals well past 16 bits into the snapshots
+    @Test
+    void statesLargerThanRunLengths() throws Exception {
+        Memory memory = new TestRom(0x1B, 1, 4).memory();
+        CPU cpu = new CPU(memory);
+        write(memory, 0x0000, 0x0A);
+        for (int bank = 0; bank < 10; bank++) {
+            write(memory, 0x4000, bank);
+            for (int address = 0xA000; address < 0xC000; address++)
+                write(memory, address, 1 + (address + bank) % 255);
+        }
+
+        Rewind rewind = new Rewind(cpu, 1, 8, 4 << 20);
+        rewind.record();
+        long keyframe = TestRom.hash(cpu);
+
+        write(memory, 0x4000, 0);
+        write(memory, 0xA000, 0);
+        write(memory, 0x4000, 0x0F);
+        write(memory, 0xBFFF, 0x77);
+        rewind.record();
+        long delta = TestRom.hash(cpu);
+
+        write(memory, 0xBFFF, 0x78);
+        write(memory, 0x4000, 3);
+        write(memory, 0xA123, 0);
+
+        assertTrue(rewind.stepBack());
+        assertEquals(delta, TestRom.hash(cpu));
+        assertTrue(rewind.stepBack());
+        assertEquals(keyframe, TestRom.hash(cpu));
+        assertFalse(rewind.stepBack());
+
+        write(memory, 0x4000, 0x0F);
+        assertEquals(0, memory.read((char) 0xBFFF));
+        write(memory, 0x4000, 3);
+        assertEquals(1 + (0xA123 + 3) % 255, memory.read((char) 0xA123));
+    }
+}
@@ -0,0 +1,59 @@
+package components;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Save state files round trip, and a damaged one is refused before the machine is touched.
+ */
+class SaveStateTest {
+    // counts into B and work ram forever, so every frame leaves a different state
+    private static final TestRom COUNTER = new TestRom().program(
+            0x04,               //loop: INC B
+            0x78,               //LD A, B
+            0xEA, 0x00, 0xC0,   //LD (0xC000), A
+            0x18, 0xF9);        //JR loop
+
+    private static Path stateFile() throws IOException {
+        Path file = Files.createTempFile("test", ".state");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    @Test
+    void roundTrip() throws Exception {
+        CPU cpu = COUNTER.machine(CPU.Dispatch.SWITCH);
+        TestRom.runFrames(cpu, 10);
+        long saved = TestRom.hash(cpu);
+        Path file = stateFile();
+        new SaveState(cpu).save(file);
+
+        TestRom.runFrames(cpu, 10);
+        new SaveState(cpu).load(file);
+        assertEquals(saved, TestRom.hash(cpu));
+    }
+
+    @Test
+    void truncatedFileLeavesTheMachineAlone() throws Exception {
+        CPU cpu = COUNTER.machine(CPU.Dispatch.SWITCH);
+        TestRom.runFrames(cpu, 10);
+        Path file = stateFile();
+        new SaveState(cpu).save(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2); //the header is intact
+        }
+
+        TestRom.runFrames(cpu, 10);
+        long running = TestRom.hash(cpu);
+        assertThrows(IOException.class, () -> new SaveState(cpu).load(file));
+        assertEquals(running, TestRom.hash(cpu));
+    }
+}
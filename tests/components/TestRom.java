@@ -0,0 +1,92 @@
+package components;
+
+import Exceptions.EmulatorException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+
+/**
+ * Small cartridges for the tests, like SyntheticRom does for the benchmarks.
+ * Both 0x0000 and 0x0100 jump to the program at 0x0150, code can also be put at the interrupt vectors.
+ * Every rom bank can be marked with its own number, read back through {@link #bank(Memory, int)}.
+ */
+final class TestRom {
+    static final int ENTRY = 0x0150;
+    private static final int MARK = 0x0200; //offset of the bank number within each bank
+
+    private final byte[] data;
+
+    TestRom() {
+        this(0x00, 0, 0);
+    }
+
+    // type, rom size and ram size as found at 0x0147 - 0x0149
+    TestRom(int type, int romSize, int ramSize) {
+        data = new byte[(2 * Cartridge.BANK_SIZE) << romSize];
+        data[0x0147] = (byte) type;
+        data[0x0148] = (byte) romSize;
+        data[0x0149] = (byte) ramSize;
+        at(0x0000, 0xC3, ENTRY & 0xFF, ENTRY >> 8);
+        at(0x0100, 0xC3, ENTRY & 0xFF, ENTRY >> 8);
+    }
+
+    TestRom at(int address, int... bytes) {
+        for (int b : bytes)
+            data[address++] = (byte) b;
+        return this;
+    }
+
+    TestRom program(int... bytes) {
+        return at(ENTRY, bytes);
+    }
+
+    TestRom markBanks() {
+        for (int bank = 0; bank < data.length / Cartridge.BANK_SIZE; bank++)
+            at(bank * Cartridge.BANK_SIZE + MARK, bank & 0xFF, bank >> 8);
+        return this;
+    }
+
+    // the file and the save file a persistent cartridge would keep next to it are deleted on exit
+    Path write() throws IOException {
+        Path file = Files.createTempFile("test", ".gb");
+        file.toFile().deleteOnExit();
+        String name = file.toString();
+        Paths.get(name.substring(0, name.length() - ".gb".length()) + ".sav").toFile().deleteOnExit();
+        Files.write(file, data);
+        return file;
+    }
+
+    // headless memory past the boot rom
+    Memory memory() throws IOException {
+        Memory memory = new Memory(new Cartridge(write().toString()), true);
+        memory.write((char) 0xFF50, (char) 1);
+        memory.video.setRenderInterval(0);
+        return memory;
+    }
+
+    CPU machine(CPU.Dispatch dispatch) throws IOException {
+        return new CPU(memory(), dispatch);
+    }
+
+    // number of the rom bank mapped at base, 0x0000 or 0x4000, for roms with marked banks
+    static int bank(Memory memory, int base) {
+        return memory.read((char) (base + MARK)) | memory.read((char) (base + MARK + 1)) << 8;
+    }
+
+    static void runFrames(CPU cpu, int frames) throws EmulatorException {
+        for (int i = 0; i < frames; i++)
+            cpu.runUntil(cpu.getTime() + Video.FRAME_CYCLES);
+    }
+
+    static long hash(CPU cpu) {
+        SaveState state = new SaveState(cpu);
+        state.capture();
+        byte[] bytes = new byte[state.capacity()];
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, state.copyTo(bytes));
+        return crc.getValue();
+    }
+}